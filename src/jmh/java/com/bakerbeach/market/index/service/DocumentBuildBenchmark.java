@@ -0,0 +1,152 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bakerbeach.market.catalog.model.RawProduct;
+import com.bakerbeach.market.index.model.IndexContextImpl;
+import com.bakerbeach.market.index.utils.PriceTimeline;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner.TimeSpan;
+import com.bakerbeach.market.inventory.api.model.InventoryStatus;
+import com.bakerbeach.market.xcatalog.model.Product;
+
+/**
+ * Document construction of both indexers without solr, translations are
+ * answered by an in memory stub.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentBuildBenchmark {
+
+	@Param({ "2", "8" })
+	public int locales;
+
+	@Param({ "1", "4" })
+	public int currencies;
+
+	@Param({ "2", "10" })
+	public int priceGroups;
+
+	@Param({ "10", "200" })
+	public int priceRows;
+
+	private IndexServiceImpl indexService;
+	private XIndexServiceImpl xIndexService;
+
+	private IndexContextImpl context;
+	private List<Locale> localeList;
+	private List<Currency> currencyList;
+	private List<String> groupList;
+	private InventoryStatus inventoryStatus;
+
+	private RawProduct rawProduct;
+	private Product product;
+	private Date lastUpdate;
+	private Date from;
+	private Date to;
+
+	private TimeSpanPlanner planner;
+	private List<Date> rawProductDates;
+	private List<Date> productDates;
+	private PriceTimeline rawProductPrices;
+	private PriceTimeline productPrices;
+	private Date now;
+
+	@Setup
+	public void setup() throws Exception {
+		IndexFixtures fixtures = new IndexFixtures(locales, currencies, priceGroups, priceRows);
+
+		indexService = new IndexServiceImpl();
+		indexService.setTranslationService(IndexFixtures.getTranslationService());
+		indexService.setInventoryService(IndexFixtures.getInventoryService());
+
+		xIndexService = new XIndexServiceImpl();
+		xIndexService.setTranslationService(IndexFixtures.getTranslationService());
+		xIndexService.setInventoryService(IndexFixtures.getInventoryService());
+
+		context = fixtures.getContext();
+		localeList = fixtures.getLocales();
+		currencyList = fixtures.getCurrencies();
+		groupList = fixtures.getPriceGroups();
+		inventoryStatus = IndexFixtures.getInventoryService().getInventoryStatus("bench");
+
+		rawProduct = fixtures.getRawProduct(1);
+		product = fixtures.getProduct(1);
+		lastUpdate = new Date();
+
+		List<Date> dates = indexService.getTimeSpanDates(rawProduct);
+		from = dates.get(dates.size() / 2 - 1);
+		to = dates.get(dates.size() / 2);
+
+		planner = new TimeSpanPlanner();
+		rawProductDates = dates;
+		productDates = xIndexService.getTimeSpanDates(product);
+		rawProductPrices = PriceTimeline.ofScaledPrices(rawProduct.getPrices());
+		productPrices = PriceTimeline.ofPrices(product.getPrices());
+		// before the first price start, so no span is dropped as expired
+		now = dates.get(0);
+	}
+
+	@Benchmark
+	public SolrInputDocument rawProductDocument() {
+		ProductIndexData data = indexService.getProductIndexData(rawProduct, inventoryStatus, localeList,
+				currencyList, groupList);
+		return indexService.getSolrInputDocument("bench", rawProduct, lastUpdate, from, to, localeList, currencyList,
+				groupList, data);
+	}
+
+	@Benchmark
+	public SolrInputDocument productDocument() {
+		ProductIndexData data = xIndexService.getProductIndexData(product, inventoryStatus, localeList, currencyList,
+				groupList);
+		return xIndexService.getSolrInputDocument("bench", product, lastUpdate, from, to, localeList, currencyList,
+				groupList, data);
+	}
+
+	@Benchmark
+	public List<SolrInputDocument> productDocuments() {
+		return xIndexService.getSolrInputDocuments(product, lastUpdate, context, inventoryStatus);
+	}
+
+	@Benchmark
+	public List<Date> rawProductTimeSpans() {
+		return indexService.getTimeSpanDates(rawProduct);
+	}
+
+	@Benchmark
+	public List<Date> productTimeSpans() {
+		return xIndexService.getTimeSpanDates(product);
+	}
+
+	@Benchmark
+	public List<TimeSpan> rawProductSpanPlan() {
+		return planner.plan(rawProductDates, rawProductPrices, now);
+	}
+
+	@Benchmark
+	public List<TimeSpan> productSpanPlan() {
+		return planner.plan(productDates, productPrices, now);
+	}
+
+}
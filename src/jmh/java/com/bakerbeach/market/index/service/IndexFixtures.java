@@ -0,0 +1,281 @@
+package com.bakerbeach.market.index.service;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.bakerbeach.market.catalog.model.RawGroupTag;
+import com.bakerbeach.market.catalog.model.RawProduct;
+import com.bakerbeach.market.core.api.model.ScaledPrice;
+import com.bakerbeach.market.index.model.IndexContextImpl;
+import com.bakerbeach.market.inventory.api.model.InventoryStatus;
+import com.bakerbeach.market.inventory.api.service.InventoryService;
+import com.bakerbeach.market.translation.api.service.TranslationService;
+import com.bakerbeach.market.xcatalog.model.Price;
+import com.bakerbeach.market.xcatalog.model.Product;
+
+/**
+ * Synthetic catalog data and service stubs for the benchmarks. Model
+ * properties are populated reflectively (setter, then field), so the fixtures
+ * only depend on the getters the indexers read.
+ */
+public class IndexFixtures {
+	private static final List<Locale> LOCALES = Arrays.asList(Locale.GERMAN, Locale.ENGLISH, Locale.FRENCH,
+			Locale.ITALIAN, new Locale("es"), new Locale("nl"), new Locale("pl"), new Locale("sv"));
+	private static final List<Currency> CURRENCIES = Arrays.asList(Currency.getInstance("EUR"),
+			Currency.getInstance("USD"), Currency.getInstance("GBP"), Currency.getInstance("CHF"),
+			Currency.getInstance("SEK"), Currency.getInstance("PLN"));
+
+	private final int locales;
+	private final int currencies;
+	private final int priceGroups;
+	private final int priceRows;
+
+	public IndexFixtures(int locales, int currencies, int priceGroups, int priceRows) {
+		this.locales = Math.min(locales, LOCALES.size());
+		this.currencies = Math.min(currencies, CURRENCIES.size());
+		this.priceGroups = priceGroups;
+		this.priceRows = priceRows;
+	}
+
+	public List<Locale> getLocales() {
+		return new ArrayList<Locale>(LOCALES.subList(0, locales));
+	}
+
+	public List<Currency> getCurrencies() {
+		return new ArrayList<Currency>(CURRENCIES.subList(0, currencies));
+	}
+
+	public List<String> getPriceGroups() {
+		List<String> groups = new ArrayList<String>();
+		for (int i = 0; i < priceGroups; i++) {
+			groups.add("group" + i);
+		}
+		return groups;
+	}
+
+	public IndexContextImpl getContext() {
+		IndexContextImpl context = new IndexContextImpl();
+		context.setShopCode("bench");
+		context.setLocales(getLocales());
+		context.setCurrencies(getCurrencies());
+		context.setPriceGroups(getPriceGroups());
+		context.getSolrUrls().put(Product.Status.values()[0].name(), "http://localhost:8983/solr/bench");
+		return context;
+	}
+
+	/**
+	 * @return price rows spread over currencies, groups (plus "default") and
+	 *         weekly start dates
+	 */
+	public List<ScaledPrice> getScaledPrices() {
+		List<ScaledPrice> prices = new ArrayList<ScaledPrice>();
+		List<String> groups = getPriceGroups();
+		groups.add("default");
+		for (int i = 0; i < priceRows; i++) {
+			ScaledPrice price = newInstance(ScaledPrice.class);
+			set(price, "currency", CURRENCIES.get(i % currencies));
+			set(price, "group", groups.get(i % groups.size()));
+			set(price, "start", getStart(i));
+			set(price, "value", BigDecimal.valueOf(1000 + i, 2));
+			prices.add(price);
+		}
+		return prices;
+	}
+
+	public List<Price> getPrices() {
+		List<Price> prices = new ArrayList<Price>();
+		List<String> groups = getPriceGroups();
+		for (int i = 0; i < priceRows; i++) {
+			Price price = newInstance(Price.class);
+			set(price, "currency", CURRENCIES.get(i % currencies));
+			set(price, "group", groups.get(i % groups.size()));
+			set(price, "tag", (i % 2 == 0) ? "regular" : "sale");
+			set(price, "start", getStart(i));
+			set(price, "value", BigDecimal.valueOf(1000 + i, 2));
+			prices.add(price);
+		}
+		return prices;
+	}
+
+	public RawProduct getRawProduct(int n) {
+		RawGroupTag primaryGroup = newInstance(RawGroupTag.class);
+		set(primaryGroup, "code", "P" + n);
+
+		RawProduct product = newInstance(RawProduct.class);
+		set(product, "gtin", String.format("4000000%06d", n));
+		set(product, "brand", "brand" + (n % 50));
+		set(product, "size", "size" + (n % 10));
+		set(product, "color", "color" + (n % 20));
+		set(product, "diet", "diet" + (n % 5));
+		set(product, "categories", Arrays.asList("category" + (n % 30), "category" + (n % 7)));
+		set(product, "primaryGroup", primaryGroup);
+		set(product, "prices", getScaledPrices());
+		set(product, "logos", getCodes("logo", n));
+		set(product, "tags", getCodes("tag", n));
+		set(product, "index", true);
+		set(product, "startDate", getStart(-1));
+		return product;
+	}
+
+	public Product getProduct(int n) {
+		Product product = newInstance(Product.class);
+		set(product, "code", String.format("C%06d", n));
+		setFirstConstant(product, "type");
+		setFirstConstant(product, "unit");
+		set(product, "primaryGroup", "P" + n);
+		set(product, "secondaryGroup", "S" + (n % 100));
+		set(product, "brand", "brand" + (n % 50));
+		set(product, "name", "name" + n);
+		set(product, "categories", Arrays.asList("category" + (n % 30), "category" + (n % 7)));
+		set(product, "prices", getPrices());
+		set(product, "logos", getCodes("logo", n));
+		set(product, "tags", getCodes("tag", n));
+		set(product, "assets", new HashMap<String, Object>());
+		set(product, "indexed", true);
+		return product;
+	}
+
+	private Map<String, List<String>> getCodes(String prefix, int n) {
+		Map<String, List<String>> codes = new HashMap<String, List<String>>();
+		codes.put(prefix + "_a", Arrays.asList(prefix + (n % 3), prefix + (n % 4)));
+		codes.put(prefix + "_b", Arrays.asList(prefix + (n % 5)));
+		return codes;
+	}
+
+	private Date getStart(int week) {
+		Calendar cal = new GregorianCalendar(Locale.GERMANY);
+		cal.clear();
+		cal.set(2016, 0, 1);
+		cal.add(Calendar.WEEK_OF_YEAR, week);
+		return cal.getTime();
+	}
+
+	/**
+	 * @return translation service answering every lookup with the code
+	 */
+	public static TranslationService getTranslationService() {
+		return stub(TranslationService.class, (method, args) -> {
+			if ("getMessage".equals(method.getName()) && args != null && args.length >= 5) {
+				return args[4];
+			}
+			return null;
+		});
+	}
+
+	public static InventoryService getInventoryService() {
+		InventoryStatus status = newInstance(InventoryStatus.class);
+		set(status, "stock", 100);
+		set(status, "outOfStockLimit", 5);
+		return stub(InventoryService.class, (method, args) -> {
+			if ("getInventoryStatus".equals(method.getName())) {
+				return status;
+			}
+			return null;
+		});
+	}
+
+	private interface Answer {
+		Object answer(Method method, Object[] args);
+	}
+
+	private static <T> T stub(Class<T> type, Answer answer) {
+		Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (p, method, args) -> {
+			Object result = answer.answer(method, args);
+			if (result == null && method.getReturnType().isPrimitive()) {
+				return defaultValue(method.getReturnType());
+			}
+			return result;
+		});
+		return type.cast(proxy);
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == char.class) {
+			return '\0';
+		} else if (type == void.class) {
+			return null;
+		}
+		return (byte) 0;
+	}
+
+	static <T> T newInstance(Class<T> type) {
+		try {
+			java.lang.reflect.Constructor<T> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException(String.format("cannot create fixture %s", type.getName()), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static void set(Object target, String property, Object value) {
+		String setter = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		try {
+			for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+				for (Method m : c.getDeclaredMethods()) {
+					if (m.getName().equals(setter) && m.getParameterCount() == 1
+							&& isAssignable(m.getParameterTypes()[0], value)) {
+						m.setAccessible(true);
+						m.invoke(target, value);
+						return;
+					}
+				}
+			}
+			for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+				try {
+					Field f = c.getDeclaredField(property);
+					f.setAccessible(true);
+					f.set(target, value);
+					return;
+				} catch (NoSuchFieldException e) {
+				}
+			}
+			if (target instanceof Map) {
+				((Map<String, Object>) target).put(property, value);
+				return;
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(String.format("cannot set %s on %s", property, target.getClass()), e);
+		}
+		throw new IllegalStateException(String.format("no property %s on %s", property, target.getClass()));
+	}
+
+	private static void setFirstConstant(Object target, String property) {
+		String getter = "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		try {
+			Class<?> type = target.getClass().getMethod(getter).getReturnType();
+			if (type.isEnum()) {
+				set(target, property, type.getEnumConstants()[0]);
+			}
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(String.format("no property %s on %s", property, target.getClass()), e);
+		}
+	}
+
+	private static boolean isAssignable(Class<?> type, Object value) {
+		if (value == null) {
+			return !type.isPrimitive();
+		}
+		if (type.isPrimitive()) {
+			return (type == boolean.class && value instanceof Boolean) || (type == int.class && value instanceof Integer)
+					|| (type == long.class && value instanceof Long);
+		}
+		return type.isInstance(value);
+	}
+
+}
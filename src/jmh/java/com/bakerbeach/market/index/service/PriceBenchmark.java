@@ -0,0 +1,89 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bakerbeach.market.core.api.model.ScaledPrice;
+import com.bakerbeach.market.index.utils.PriceTimeline;
+import com.bakerbeach.market.index.utils.PriceUtils;
+
+/**
+ * Price and standard price resolution of all currency/group combinations at
+ * every time span start, list scans against the timeline lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceBenchmark {
+
+	@Param({ "1", "4" })
+	public int currencies;
+
+	@Param({ "2", "10" })
+	public int priceGroups;
+
+	@Param({ "10", "200", "1000" })
+	public int priceRows;
+
+	private List<ScaledPrice> prices;
+	private List<Currency> currencyList;
+	private List<String> groupList;
+	private Date[] dates;
+
+	@Setup
+	public void setup() {
+		IndexFixtures fixtures = new IndexFixtures(1, currencies, priceGroups, priceRows);
+		prices = fixtures.getScaledPrices();
+		currencyList = fixtures.getCurrencies();
+		groupList = fixtures.getPriceGroups();
+
+		dates = new Date[prices.size()];
+		for (int i = 0; i < prices.size(); i++) {
+			dates[i] = prices.get(i).getStart();
+		}
+	}
+
+	@Benchmark
+	public void priceUtils(Blackhole bh) {
+		for (Date date : dates) {
+			for (Currency currency : currencyList) {
+				for (String group : groupList) {
+					bh.consume(PriceUtils.getPrice(prices, currency, group, date));
+					bh.consume(PriceUtils.getStdPrice(prices, currency, group, date));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void priceTimeline(Blackhole bh) {
+		PriceTimeline timeline = PriceTimeline.ofScaledPrices(prices);
+		for (Date date : dates) {
+			for (Currency currency : currencyList) {
+				for (String group : groupList) {
+					bh.consume(timeline.getPrice(currency, group, date));
+					bh.consume(timeline.getStdPrice(currency, group));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.bakerbeach.market.index.model;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+
+/**
+ * When the documents sent by an indexing run become visible. commitWithin is
+ * set on every update request (solr 4 turns it into a soft commit), explicit
+ * commits can follow each batch and the end of the run.
+ */
+public class CommitPolicy {
+	private int commitWithin = -1;
+	private boolean commitAfterBatch = false;
+	private boolean softCommitAfterBatch = true;
+	private boolean commitAtEnd = false;
+
+	/**
+	 * @return the given commitWithin on every request, no explicit commits
+	 */
+	public static CommitPolicy commitWithin(int commitWithin) {
+		CommitPolicy policy = new CommitPolicy();
+		policy.setCommitWithin(commitWithin);
+		return policy;
+	}
+
+	/**
+	 * @return no per request commits and one hard commit at the end of the
+	 *         run, for full reindexes
+	 */
+	public static CommitPolicy bulk() {
+		CommitPolicy policy = new CommitPolicy();
+		policy.setCommitAtEnd(true);
+		return policy;
+	}
+
+	/**
+	 * @return short soft commit window, for stock and price hotfixes
+	 */
+	public static CommitPolicy hotfix(int commitWithin) {
+		return commitWithin(commitWithin);
+	}
+
+	/**
+	 * @return commitWithin 10s on every request, the behaviour before commit
+	 *         policies existed
+	 */
+	public static CommitPolicy getDefault() {
+		return commitWithin(10000);
+	}
+
+	public void apply(AbstractUpdateRequest request) {
+		if (commitWithin > 0) {
+			request.setCommitWithin(commitWithin);
+		}
+	}
+
+	public void afterBatch(SolrServer solr) throws Exception {
+		if (commitAfterBatch) {
+			solr.commit(false, false, softCommitAfterBatch);
+		}
+	}
+
+	public void afterRun(SolrServer solr) throws Exception {
+		if (commitAtEnd) {
+			solr.commit();
+		}
+	}
+
+	public int getCommitWithin() {
+		return commitWithin;
+	}
+
+	/**
+	 * @param commitWithin
+	 *            milliseconds, 0 or less sends no commitWithin
+	 */
+	public void setCommitWithin(int commitWithin) {
+		this.commitWithin = commitWithin;
+	}
+
+	public boolean isCommitAfterBatch() {
+		return commitAfterBatch;
+	}
+
+	public void setCommitAfterBatch(boolean commitAfterBatch) {
+		this.commitAfterBatch = commitAfterBatch;
+	}
+
+	public boolean isSoftCommitAfterBatch() {
+		return softCommitAfterBatch;
+	}
+
+	public void setSoftCommitAfterBatch(boolean softCommitAfterBatch) {
+		this.softCommitAfterBatch = softCommitAfterBatch;
+	}
+
+	public boolean isCommitAtEnd() {
+		return commitAtEnd;
+	}
+
+	public void setCommitAtEnd(boolean commitAtEnd) {
+		this.commitAtEnd = commitAtEnd;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("commitWithin=%d commitAfterBatch=%s (soft=%s) commitAtEnd=%s", commitWithin,
+				commitAfterBatch, softCommitAfterBatch, commitAtEnd);
+	}
+
+}
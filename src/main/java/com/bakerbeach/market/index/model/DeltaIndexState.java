@@ -0,0 +1,72 @@
+package com.bakerbeach.market.index.model;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per collection state of delta indexing: the high-water mark of the last
+ * completed run and the content fingerprint of every indexed product.
+ */
+public class DeltaIndexState {
+	private final String collection;
+	private volatile Date watermark;
+	private volatile long contextFingerprint;
+	private final Map<String, Long> fingerprints = new ConcurrentHashMap<String, Long>();
+
+	public DeltaIndexState(String collection) {
+		this.collection = collection;
+	}
+
+	public boolean isUnchanged(String code, long fingerprint) {
+		Long current = fingerprints.get(code);
+		return current != null && current == fingerprint;
+	}
+
+	public void setFingerprint(String code, Long fingerprint) {
+		if (fingerprint != null) {
+			fingerprints.put(code, fingerprint);
+		} else {
+			fingerprints.remove(code);
+		}
+	}
+
+	public void clearFingerprints() {
+		fingerprints.clear();
+	}
+
+	public Map<String, Long> getFingerprints() {
+		return fingerprints;
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public Date getWatermark() {
+		return watermark;
+	}
+
+	public void setWatermark(Date watermark) {
+		this.watermark = watermark;
+	}
+
+	/**
+	 * Moves the watermark to the given date unless it is already later, so an
+	 * older run finishing last does not make the next delta load too little.
+	 */
+	public void advanceWatermark(Date date) {
+		if (date != null && (watermark == null || date.after(watermark))) {
+			watermark = date;
+		}
+	}
+
+	public long getContextFingerprint() {
+		return contextFingerprint;
+	}
+
+	public void setContextFingerprint(long contextFingerprint) {
+		this.contextFingerprint = contextFingerprint;
+	}
+
+}
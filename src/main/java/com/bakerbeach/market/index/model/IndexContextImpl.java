@@ -16,6 +16,8 @@ public class IndexContextImpl implements IndexContext {
 	private List<Currency> currencies;
 	private List<String> priceGroups;
 	private Map<String, String> solrUrls = new HashMap<String, String>();
+	private CommitPolicy commitPolicy;
+	private boolean streamingUpdates = false;
 
 	/* (non-Javadoc)
 	 * @see com.bakerbeach.market.index.model.IndexContext#getShopCode()
@@ -96,4 +98,28 @@ public class IndexContextImpl implements IndexContext {
 		this.solrUrls = solrUrls;
 	}
 
+	/**
+	 * @return commit policy of runs with this context, null for the default of
+	 *         the index service
+	 */
+	public CommitPolicy getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	public void setCommitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+	}
+
+	/**
+	 * @return true if bulk runs send their batches through the queueing
+	 *         streaming client instead of one request at a time
+	 */
+	public boolean isStreamingUpdates() {
+		return streamingUpdates;
+	}
+
+	public void setStreamingUpdates(boolean streamingUpdates) {
+		this.streamingUpdates = streamingUpdates;
+	}
+
 }
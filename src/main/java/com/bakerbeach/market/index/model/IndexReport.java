@@ -0,0 +1,149 @@
+package com.bakerbeach.market.index.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of an indexing run: per-stage counters and the products that could
+ * not be indexed together with the reason.
+ */
+public class IndexReport {
+	private final long started = System.nanoTime();
+	// nanoTime may be negative, so no value of it can mark a running report
+	private volatile long finished;
+	private volatile boolean done = false;
+	private volatile boolean cancelled = false;
+
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong built = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong unchanged = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	private final Map<String, String> failures = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+	public void queued() {
+		queued.incrementAndGet();
+	}
+
+	public void built() {
+		built.incrementAndGet();
+	}
+
+	public void skipped() {
+		skipped.incrementAndGet();
+	}
+
+	public void unchanged() {
+		unchanged.incrementAndGet();
+	}
+
+	public void indexed(int products, int docs) {
+		indexed.addAndGet(products);
+		documents.addAndGet(docs);
+		batches.incrementAndGet();
+	}
+
+	public void failed(String code, String stage, Throwable cause) {
+		failed.incrementAndGet();
+		String message = (cause != null) ? cause.getClass().getSimpleName() + ": " + cause.getMessage() : "unknown";
+		failures.put(code, String.format("%s: %s", stage, message));
+	}
+
+	/**
+	 * Asks the run to stop: products not built yet are skipped, batches
+	 * already built are still written.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void finish() {
+		finished = System.nanoTime();
+		done = true;
+	}
+
+	public boolean isFinished() {
+		return done;
+	}
+
+	public long getQueued() {
+		return queued.get();
+	}
+
+	public long getBuilt() {
+		return built.get();
+	}
+
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public long getUnchanged() {
+		return unchanged.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getIndexed() {
+		return indexed.get();
+	}
+
+	public long getDocuments() {
+		return documents.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public Map<String, String> getFailures() {
+		synchronized (failures) {
+			return new LinkedHashMap<String, String>(failures);
+		}
+	}
+
+	public long getElapsedMillis() {
+		long end = done ? finished : System.nanoTime();
+		return TimeUnit.NANOSECONDS.toMillis(end - started);
+	}
+
+	public double getBuildThroughput() {
+		return perSecond(built.get());
+	}
+
+	public double getIndexThroughput() {
+		return perSecond(indexed.get());
+	}
+
+	public double getDocumentThroughput() {
+		return perSecond(documents.get());
+	}
+
+	private double perSecond(long count) {
+		long millis = getElapsedMillis();
+		return (millis > 0) ? count * 1000d / millis : count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"queued=%d built=%d (%.1f/s) indexed=%d (%.1f/s) docs=%d (%.1f/s) batches=%d skipped=%d unchanged=%d failed=%d elapsed=%dms%s",
+				getQueued(), getBuilt(), getBuildThroughput(), getIndexed(), getIndexThroughput(), getDocuments(),
+				getDocumentThroughput(), getBatches(), getSkipped(), getUnchanged(), getFailed(), getElapsedMillis(),
+				cancelled ? " cancelled" : "");
+	}
+
+}
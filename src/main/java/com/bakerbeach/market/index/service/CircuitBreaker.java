@@ -0,0 +1,62 @@
+package com.bakerbeach.market.index.service;
+
+/**
+ * Consecutive failure circuit breaker. After failureThreshold failures in a
+ * row requests are refused for openMillis; then a single trial request is let
+ * through, which closes the circuit again or reopens it.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private int failures = 0;
+	private long openedAt = -1;
+	private boolean trial = false;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	public synchronized boolean allowRequest() {
+		if (openedAt < 0) {
+			return true;
+		}
+		if (!trial && System.currentTimeMillis() - openedAt >= openMillis) {
+			trial = true;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized void success() {
+		failures = 0;
+		openedAt = -1;
+		trial = false;
+	}
+
+	public synchronized void failure() {
+		failures++;
+		if (trial || failures >= failureThreshold) {
+			openedAt = System.currentTimeMillis();
+		}
+		trial = false;
+	}
+
+	public synchronized State getState() {
+		if (openedAt < 0) {
+			return State.CLOSED;
+		}
+		return (trial || System.currentTimeMillis() - openedAt >= openMillis) ? State.HALF_OPEN : State.OPEN;
+	}
+
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.bakerbeach.market.index.service;
+
+/**
+ * Alias operations used to swap a rebuilt collection in. Base urls are the
+ * solr root, e.g. http://localhost:8983/solr.
+ */
+public interface CollectionAdmin {
+
+	/**
+	 * @return the collection the alias points to or null if there is no such
+	 *         alias
+	 */
+	String getAliasTarget(String baseUrl, String alias) throws Exception;
+
+	/**
+	 * Creates the alias or atomically moves it to the given collection.
+	 */
+	void createAlias(String baseUrl, String alias, String collection) throws Exception;
+
+}
@@ -0,0 +1,506 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.utils.JsonUtils;
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+
+/**
+ * Append-only file of update requests that could not be written to solr, one
+ * JSON object per line with the url, the documents and the delete queries.
+ * Field values are written with their type, so replayed documents carry the
+ * same BigDecimal, Date and number values as the originals.
+ * <p>
+ * While the spool holds requests, the {@link SolrWriter} records the products
+ * every successful write replaced. {@link #replay(SolrWriter)} drops the parts
+ * of spooled requests a later write superseded and sends the rest again;
+ * whatever fails once more is appended to a fresh spool file. Lines that
+ * cannot be read are moved to a separate file instead of being lost.
+ */
+public class DeadLetterSpool {
+	protected static final Logger log = LoggerFactory.getLogger(DeadLetterSpool.class);
+
+	private static final String FILE_NAME = "dead-letter.jsonl";
+	private static final String REPLAY_SUFFIX = ".replay";
+	private static final String UNREADABLE_FILE_NAME = "dead-letter.unreadable";
+	private static final int FORMAT = 2;
+	private static final String ID_FIELD = "id";
+
+	private File directory;
+
+	// null until the spool file was looked for
+	private volatile Boolean pending;
+	private volatile boolean replaying;
+	private final Set<String> writtenDuringReplay = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<Boolean> replayThread = new ThreadLocal<Boolean>();
+
+	public synchronized void append(String url, UpdateRequest request, Throwable cause) throws IOException {
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("format", FORMAT);
+		entry.put("url", url);
+		entry.put("time", new Date().toInstant().toString());
+		entry.put("error", (cause != null) ? String.valueOf(cause.getMessage()) : null);
+		entry.put("commitWithin", request.getCommitWithin());
+		entry.put("deleteById", request.getDeleteById());
+		entry.put("deleteQuery", request.getDeleteQuery());
+
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		if (request.getDocuments() != null) {
+			for (SolrInputDocument doc : request.getDocuments()) {
+				docs.add(toMap(doc));
+			}
+		}
+		entry.put("docs", docs);
+
+		write(entry);
+		pending = true;
+		log.warn(String.format("spooled update of %d documents for %s to %s", docs.size(), url, getFile()));
+	}
+
+	/**
+	 * Records the products and documents a successful request replaced, so
+	 * replay does not bring back older spooled versions of them. Does nothing
+	 * while the spool is empty.
+	 */
+	public void written(String url, UpdateRequest request) throws IOException {
+		if (Boolean.TRUE.equals(replayThread.get()) || !hasPending()) {
+			return;
+		}
+		Set<String> keys = getWrittenKeys(request);
+		if (keys.isEmpty()) {
+			return;
+		}
+		if (replaying) {
+			for (String key : keys) {
+				writtenDuringReplay.add(url + "\t" + key);
+			}
+		}
+		synchronized (this) {
+			if (getFile().exists()) {
+				Map<String, Object> marker = new LinkedHashMap<String, Object>();
+				marker.put("format", FORMAT);
+				marker.put("url", url);
+				marker.put("written", keys);
+				write(marker);
+			}
+		}
+	}
+
+	/**
+	 * Sends all spooled requests again through the writer, including those of
+	 * an earlier replay that did not finish.
+	 *
+	 * @return number of requests written successfully
+	 */
+	public int replay(SolrWriter writer) throws IOException {
+		List<File> files;
+		synchronized (this) {
+			File file = getFile();
+			if (file.exists()) {
+				File replay = new File(directory, FILE_NAME + "." + System.currentTimeMillis() + REPLAY_SUFFIX);
+				Files.move(file.toPath(), replay.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			File[] found = (directory != null) ? directory
+					.listFiles((dir, name) -> name.startsWith(FILE_NAME + ".") && name.endsWith(REPLAY_SUFFIX))
+					: null;
+			if (found == null || found.length == 0) {
+				return 0;
+			}
+			files = new ArrayList<File>(Arrays.asList(found));
+			Collections.sort(files);
+			replaying = true;
+		}
+
+		int written = 0;
+		int failed = 0;
+		int superseded = 0;
+		replayThread.set(Boolean.TRUE);
+		try {
+			List<Map<?, ?>> lines = read(files);
+
+			// position of the last write of every url and key
+			Map<String, Integer> lastWritten = new HashMap<String, Integer>();
+			for (int i = 0; i < lines.size(); i++) {
+				Object keys = lines.get(i).get("written");
+				if (keys instanceof Collection) {
+					for (Object key : (Collection<?>) keys) {
+						lastWritten.put(lines.get(i).get("url") + "\t" + key, i);
+					}
+				}
+			}
+
+			for (int i = 0; i < lines.size(); i++) {
+				Map<?, ?> entry = lines.get(i);
+				if (entry.containsKey("written")) {
+					continue;
+				}
+				String url = (String) entry.get("url");
+				int position = i;
+				UpdateRequest request;
+				try {
+					request = toRequest(entry, key -> {
+						Integer last = lastWritten.get(url + "\t" + key);
+						return (last != null && last > position) || writtenDuringReplay.contains(url + "\t" + key);
+					});
+				} catch (Exception e) {
+					failed++;
+					unreadable(JsonUtils.toJson(entry), e);
+					continue;
+				}
+				if (request == null) {
+					superseded++;
+					continue;
+				}
+				try {
+					// failures are spooled again by the writer
+					writer.process(url, SolrServerCache.getServer(url), request);
+					written++;
+				} catch (Exception e) {
+					failed++;
+					log.debug(ExceptionUtils.getStackTrace(e));
+				}
+			}
+			for (File file : files) {
+				Files.delete(file.toPath());
+			}
+		} finally {
+			replayThread.remove();
+			synchronized (this) {
+				replaying = false;
+				writtenDuringReplay.clear();
+				pending = getFile().exists();
+			}
+		}
+		log.info(String.format("replayed %d spooled requests, %d superseded by later writes, %d failed again",
+				written, superseded, failed));
+
+		return written;
+	}
+
+	public synchronized boolean isEmpty() {
+		return !getFile().exists();
+	}
+
+	protected File getFile() {
+		return new File(directory, FILE_NAME);
+	}
+
+	protected File getUnreadableFile() {
+		return new File(directory, UNREADABLE_FILE_NAME);
+	}
+
+	private boolean hasPending() {
+		Boolean p = pending;
+		if (p == null) {
+			synchronized (this) {
+				p = pending;
+				if (p == null) {
+					p = getFile().exists();
+					pending = p;
+				}
+			}
+		}
+		return p || replaying;
+	}
+
+	private void write(Map<String, Object> line) throws IOException {
+		Files.createDirectories(directory.toPath());
+		try (BufferedWriter writer = Files.newBufferedWriter(getFile().toPath(), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			writer.append(JsonUtils.toJson(line)).append('\n');
+		}
+	}
+
+	private List<Map<?, ?>> read(List<File> files) throws IOException {
+		List<Map<?, ?>> lines = new ArrayList<Map<?, ?>>();
+		for (File file : files) {
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					try {
+						lines.add(JsonUtils.getMapper().readValue(line, Map.class));
+					} catch (Exception e) {
+						unreadable(line, e);
+					}
+				}
+			}
+		}
+		return lines;
+	}
+
+	private synchronized void unreadable(String line, Exception cause) throws IOException {
+		Files.createDirectories(directory.toPath());
+		try (BufferedWriter writer = Files.newBufferedWriter(getUnreadableFile().toPath(), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			writer.append(line).append('\n');
+		}
+		log.error(String.format("unreadable spool entry moved to %s: %s", getUnreadableFile(), cause.getMessage()));
+	}
+
+	/**
+	 * @return &lt;key field&gt;:&lt;key&gt; of the products the request
+	 *         replaces or deletes and id:&lt;id&gt; of its documents
+	 */
+	static Set<String> getWrittenKeys(UpdateRequest request) {
+		Set<String> keys = new LinkedHashSet<String>();
+		if (request.getDeleteQuery() != null) {
+			for (String q : request.getDeleteQuery()) {
+				SolrQueryUtils.KeyQuery keyQuery = SolrQueryUtils.parseKeyQuery(q, ID_FIELD);
+				if (keyQuery != null) {
+					for (String key : keyQuery.getKeys()) {
+						keys.add(keyQuery.getField() + ":" + key);
+					}
+				}
+			}
+		}
+		if (request.getDocuments() != null) {
+			for (SolrInputDocument doc : request.getDocuments()) {
+				Object id = doc.getFieldValue(ID_FIELD);
+				if (id != null) {
+					keys.add(ID_FIELD + ":" + id);
+				}
+			}
+		}
+		return keys;
+	}
+
+	private Map<String, Object> toMap(SolrInputDocument doc) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (SolrInputField field : doc) {
+			map.put(field.getName(), encode(field.getValue()));
+		}
+		return map;
+	}
+
+	/**
+	 * Prefixes scalars with their type, json alone would read BigDecimal back
+	 * as Double and Date as String.
+	 */
+	static Object encode(Object value) {
+		if (value == null) {
+			return null;
+		} else if (value instanceof Collection) {
+			List<Object> values = new ArrayList<Object>();
+			for (Object v : (Collection<?>) value) {
+				values.add(encode(v));
+			}
+			return values;
+		} else if (value instanceof Map) {
+			// atomic updates
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				values.put(String.valueOf(e.getKey()), encode(e.getValue()));
+			}
+			return values;
+		} else if (value instanceof BigDecimal) {
+			return "n:" + value;
+		} else if (value instanceof Date) {
+			return "t:" + ((Date) value).getTime();
+		} else if (value instanceof Integer) {
+			return "i:" + value;
+		} else if (value instanceof Long) {
+			return "l:" + value;
+		} else if (value instanceof Double) {
+			return "d:" + value;
+		} else if (value instanceof Float) {
+			return "f:" + value;
+		} else if (value instanceof Boolean) {
+			return "b:" + value;
+		}
+		return "s:" + value;
+	}
+
+	static Object decode(Object value) {
+		if (value instanceof Collection) {
+			List<Object> values = new ArrayList<Object>();
+			for (Object v : (Collection<?>) value) {
+				values.add(decode(v));
+			}
+			return values;
+		} else if (value instanceof Map) {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				values.put(String.valueOf(e.getKey()), decode(e.getValue()));
+			}
+			return values;
+		} else if (!(value instanceof String)) {
+			return value;
+		}
+
+		String s = (String) value;
+		if (s.length() < 2 || s.charAt(1) != ':') {
+			throw new IllegalArgumentException(String.format("untyped spool value %s", s));
+		}
+		String v = s.substring(2);
+		switch (s.charAt(0)) {
+		case 'n':
+			return new BigDecimal(v);
+		case 't':
+			return new Date(Long.parseLong(v));
+		case 'i':
+			return Integer.valueOf(v);
+		case 'l':
+			return Long.valueOf(v);
+		case 'd':
+			return Double.valueOf(v);
+		case 'f':
+			return Float.valueOf(v);
+		case 'b':
+			return Boolean.valueOf(v);
+		case 's':
+			return v;
+		default:
+			throw new IllegalArgumentException(String.format("unknown spool value type %s", s));
+		}
+	}
+
+	/**
+	 * @param superseded
+	 *            tells if a key of {@link #getWrittenKeys(UpdateRequest)} was
+	 *            written after the entry was spooled
+	 * @return the request without the superseded products and documents, null
+	 *         if nothing is left
+	 */
+	@SuppressWarnings("unchecked")
+	static UpdateRequest toRequest(Map<?, ?> entry, Superseded superseded) {
+		boolean typed = entry.get("format") instanceof Number && ((Number) entry.get("format")).intValue() >= FORMAT;
+
+		// products replaced or deleted by the queries, per key field
+		Map<String, Map<String, List<String>>> idsByKeyByField = new LinkedHashMap<String, Map<String, List<String>>>();
+		List<String> otherQueries = new ArrayList<String>();
+		List<String> deleteQuery = (List<String>) entry.get("deleteQuery");
+		if (deleteQuery != null) {
+			for (String q : deleteQuery) {
+				SolrQueryUtils.KeyQuery keyQuery = SolrQueryUtils.parseKeyQuery(q, ID_FIELD);
+				if (keyQuery == null) {
+					otherQueries.add(q);
+					continue;
+				}
+				Map<String, List<String>> idsByKey = idsByKeyByField.computeIfAbsent(keyQuery.getField(),
+						k -> new LinkedHashMap<String, List<String>>());
+				for (String key : keyQuery.getKeys()) {
+					if (!superseded.test(keyQuery.getField() + ":" + key)) {
+						idsByKey.put(key, new ArrayList<String>());
+					}
+				}
+			}
+		}
+
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+		List<Map<String, Object>> maps = (List<Map<String, Object>>) entry.get("docs");
+		if (maps != null) {
+			for (Map<String, Object> map : maps) {
+				SolrInputDocument doc = new SolrInputDocument();
+				for (Map.Entry<String, Object> field : map.entrySet()) {
+					Object value = typed ? decode(field.getValue()) : field.getValue();
+					if (value instanceof Collection) {
+						for (Object v : (Collection<Object>) value) {
+							doc.addField(field.getKey(), v);
+						}
+					} else {
+						doc.addField(field.getKey(), value);
+					}
+				}
+				if (isCurrent(doc, idsByKeyByField, superseded)) {
+					docs.add(doc);
+				}
+			}
+		}
+
+		List<String> queries = new ArrayList<String>(otherQueries);
+		for (Map.Entry<String, Map<String, List<String>>> e : idsByKeyByField.entrySet()) {
+			if (!e.getValue().isEmpty()) {
+				queries.addAll(SolrQueryUtils.getReplaceQueries(e.getKey(), ID_FIELD, e.getValue()));
+			}
+		}
+		List<String> deleteById = (List<String>) entry.get("deleteById");
+		if (docs.isEmpty() && queries.isEmpty() && (deleteById == null || deleteById.isEmpty())) {
+			return null;
+		}
+
+		UpdateRequest request = new UpdateRequest();
+		if (!docs.isEmpty()) {
+			request.add(docs);
+		}
+		if (deleteById != null && !deleteById.isEmpty()) {
+			request.deleteById(deleteById);
+		}
+		for (String q : queries) {
+			request.deleteByQuery(q);
+		}
+		Number commitWithin = (Number) entry.get("commitWithin");
+		if (commitWithin != null && commitWithin.intValue() > 0) {
+			request.setCommitWithin(commitWithin.intValue());
+		}
+		return request;
+	}
+
+	/**
+	 * @return false if the product of the document, or the document itself,
+	 *         was written since; adds the id of a current document to the
+	 *         replace query of its product
+	 */
+	private static boolean isCurrent(SolrInputDocument doc, Map<String, Map<String, List<String>>> idsByKeyByField,
+			Superseded superseded) {
+		Object id = doc.getFieldValue(ID_FIELD);
+		for (Map.Entry<String, Map<String, List<String>>> e : idsByKeyByField.entrySet()) {
+			Object key = doc.getFieldValue(e.getKey());
+			if (key == null) {
+				continue;
+			}
+			if (superseded.test(e.getKey() + ":" + key)) {
+				return false;
+			}
+			List<String> ids = e.getValue().get(key.toString());
+			if (ids != null) {
+				if (id != null) {
+					ids.add(id.toString());
+				}
+				return true;
+			}
+		}
+		return id == null || !superseded.test(ID_FIELD + ":" + id);
+	}
+
+	interface Superseded {
+		boolean test(String key);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+}
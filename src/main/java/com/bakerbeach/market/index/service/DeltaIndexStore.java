@@ -0,0 +1,110 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.model.DeltaIndexState;
+
+/**
+ * Keeps the {@link DeltaIndexState} of each collection in a plain text file
+ * below the configured directory. Files are replaced atomically, so a crash
+ * while saving leaves the previous state intact.
+ */
+public class DeltaIndexStore {
+	protected static final Logger log = LoggerFactory.getLogger(DeltaIndexStore.class);
+
+	private static final String WATERMARK = "#watermark\t";
+	private static final String CONTEXT = "#context\t";
+
+	private File directory;
+
+	public DeltaIndexState load(String collection) {
+		DeltaIndexState state = new DeltaIndexState(collection);
+		File file = getFile(collection);
+		if (!file.exists()) {
+			return state;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.startsWith(WATERMARK)) {
+					state.setWatermark(new Date(Long.parseLong(line.substring(WATERMARK.length()))));
+				} else if (line.startsWith(CONTEXT)) {
+					state.setContextFingerprint(Long.parseUnsignedLong(line.substring(CONTEXT.length()), 16));
+				} else {
+					int tab = line.lastIndexOf('\t');
+					if (tab > 0) {
+						state.setFingerprint(line.substring(0, tab), Long.parseUnsignedLong(line.substring(tab + 1), 16));
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.warn(String.format("could not read delta state %s, starting from scratch: %s", file, e.getMessage()));
+			return new DeltaIndexState(collection);
+		}
+		return state;
+	}
+
+	/**
+	 * @return the watermark of the collection without reading its
+	 *         fingerprints, null if there is none
+	 */
+	public Date loadWatermark(String collection) {
+		File file = getFile(collection);
+		if (!file.exists()) {
+			return null;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			// the header lines come first
+			for (String line = reader.readLine(); line != null && line.startsWith("#"); line = reader.readLine()) {
+				if (line.startsWith(WATERMARK)) {
+					return new Date(Long.parseLong(line.substring(WATERMARK.length())));
+				}
+			}
+		} catch (Exception e) {
+			log.warn(String.format("could not read delta watermark %s: %s", file, e.getMessage()));
+		}
+		return null;
+	}
+
+	public void save(DeltaIndexState state) throws IOException {
+		File file = getFile(state.getCollection());
+		File tmp = new File(file.getPath() + ".tmp");
+		Files.createDirectories(directory.toPath());
+
+		try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			if (state.getWatermark() != null) {
+				writer.append(WATERMARK).append(Long.toString(state.getWatermark().getTime())).append('\n');
+			}
+			writer.append(CONTEXT).append(Long.toHexString(state.getContextFingerprint())).append('\n');
+			for (Entry<String, Long> e : state.getFingerprints().entrySet()) {
+				writer.append(e.getKey()).append('\t').append(Long.toHexString(e.getValue())).append('\n');
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	protected File getFile(String collection) {
+		return new File(directory, collection.replaceAll("[^A-Za-z0-9._-]", "_") + ".delta");
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+}
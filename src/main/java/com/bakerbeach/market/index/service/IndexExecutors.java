@@ -0,0 +1,109 @@
+package com.bakerbeach.market.index.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.model.IndexReport;
+
+/**
+ * Default executor of the asynchronous index calls: one virtual thread per
+ * task on JVMs that have them, a cached pool of daemon threads otherwise.
+ */
+public class IndexExecutors {
+	protected static final Logger log = LoggerFactory.getLogger(IndexExecutors.class);
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static volatile ExecutorService defaultExecutor;
+
+	private IndexExecutors() {
+	}
+
+	public static ExecutorService getDefault() {
+		if (defaultExecutor == null) {
+			synchronized (IndexExecutors.class) {
+				if (defaultExecutor == null) {
+					defaultExecutor = newExecutor();
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * Runs the task on the executor. Cancelling the returned future cancels
+	 * the report, so a running task stops building new documents; the future
+	 * completes exceptionally if the task throws.
+	 */
+	public static CompletableFuture<IndexReport> submit(Executor executor, IndexReport report, IndexTask task) {
+		CompletableFuture<IndexReport> future = new CompletableFuture<IndexReport>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				report.cancel();
+				return super.cancel(mayInterruptIfRunning);
+			}
+		};
+		try {
+			executor.execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(task.run(report));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @return a virtual thread per task executor if the JVM supports it
+	 */
+	public static ExecutorService newExecutor() {
+		try {
+			// looked up reflectively, the module is still compiled for java 8
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService executor = (ExecutorService) factory.invoke(null);
+			log.info("async indexing uses virtual threads");
+			return executor;
+		} catch (NoSuchMethodException e) {
+			// fall through
+		} catch (Exception e) {
+			log.warn(String.format("virtual threads not available: %s", e.getMessage()));
+		}
+		return Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "index-async-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * @return a pool of daemon threads for work that index tasks wait on, so
+	 *         it never queues behind them on a bounded async executor
+	 */
+	public static ExecutorService newFixedExecutor(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public interface IndexTask {
+		IndexReport run(IndexReport report) throws Exception;
+	}
+
+}
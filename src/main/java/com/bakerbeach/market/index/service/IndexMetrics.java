@@ -0,0 +1,313 @@
+package com.bakerbeach.market.index.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and latency histograms of the indexing stages. Recording is lock
+ * free and cheap enough for the per document path; register an instance to
+ * read it through JMX.
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+	protected static final Logger log = LoggerFactory.getLogger(IndexMetrics.class);
+
+	public static final String DOMAIN = "com.bakerbeach.market.index";
+
+	public enum Stage {
+		BUILD, TRANSLATION, INVENTORY, SOLR_ADD, SOLR_DELETE;
+
+		public String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final Map<Stage, Histogram> histograms = new LinkedHashMap<Stage, Histogram>();
+	private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder products = new LongAdder();
+	private final LongAdder documents = new LongAdder();
+	private final AtomicLong sampleCount = new AtomicLong();
+	private volatile long started = System.nanoTime();
+
+	private int documentLogSampling = 1000;
+	private ObjectName objectName;
+
+	public IndexMetrics() {
+		for (Stage stage : Stage.values()) {
+			histograms.put(stage, new Histogram());
+		}
+	}
+
+	/**
+	 * @param start
+	 *            System.nanoTime() at the start of the operation
+	 */
+	public void record(Stage stage, long start) {
+		histograms.get(stage).record(System.nanoTime() - start);
+	}
+
+	public void failed(Stage stage, Throwable cause) {
+		String key = stage.getName() + ":" + ((cause != null) ? cause.getClass().getSimpleName() : "unknown");
+		LongAdder count = failures.get(key);
+		if (count == null) {
+			count = failures.computeIfAbsent(key, k -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	public void indexed(int products, int docs) {
+		this.products.add(products);
+		this.documents.add(docs);
+	}
+
+	/**
+	 * @return true for one in documentLogSampling calls, used to limit full
+	 *         document dumps in the log
+	 */
+	public boolean isSampled() {
+		return documentLogSampling > 0 && sampleCount.getAndIncrement() % documentLogSampling == 0;
+	}
+
+	/**
+	 * Registers under the given name, or name#2, name#3, ... if another
+	 * instance already uses it.
+	 */
+	public synchronized void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (int i = 1;; i++) {
+				String instanceName = (i == 1) ? name : name + "#" + i;
+				ObjectName objectName = new ObjectName(
+						DOMAIN + ":type=IndexMetrics,name=" + ObjectName.quote(instanceName));
+				try {
+					server.registerMBean(this, objectName);
+					this.objectName = objectName;
+					return;
+				} catch (InstanceAlreadyExistsException e) {
+					// taken by another service instance
+				}
+			}
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	/**
+	 * @return the JMX name or null if not registered
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+	public synchronized void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				log.warn(String.format("could not unregister %s: %s", objectName, e.getMessage()));
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public long getProducts() {
+		return products.sum();
+	}
+
+	@Override
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		long nanos = System.nanoTime() - started;
+		return (nanos > 0) ? documents.sum() * 1e9 / nanos : 0;
+	}
+
+	public long getCount(Stage stage) {
+		return histograms.get(stage).getCount();
+	}
+
+	public double getPercentileMillis(Stage stage, double percentile) {
+		return histograms.get(stage).getPercentileMillis(percentile);
+	}
+
+	@Override
+	public Map<String, Long> getCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Stage, Histogram> e : histograms.entrySet()) {
+			counts.put(e.getKey().getName(), e.getValue().getCount());
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getMeanMillis() {
+		Map<String, Double> means = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Histogram> e : histograms.entrySet()) {
+			means.put(e.getKey().getName(), e.getValue().getMeanMillis());
+		}
+		return means;
+	}
+
+	@Override
+	public Map<String, Double> getP50Millis() {
+		return getPercentilesMillis(0.5);
+	}
+
+	@Override
+	public Map<String, Double> getP99Millis() {
+		return getPercentilesMillis(0.99);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMillis() {
+		Map<String, Double> max = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Histogram> e : histograms.entrySet()) {
+			max.put(e.getKey().getName(), e.getValue().getMaxMillis());
+		}
+		return max;
+	}
+
+	private Map<String, Double> getPercentilesMillis(double percentile) {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Map.Entry<Stage, Histogram> e : histograms.entrySet()) {
+			values.put(e.getKey().getName(), e.getValue().getPercentileMillis(percentile));
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> e : failures.entrySet()) {
+			counts.put(e.getKey(), e.getValue().sum());
+		}
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		failures.clear();
+		products.reset();
+		documents.reset();
+		started = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format("products=%d docs=%d (%.1f/s)", getProducts(),
+				getDocuments(), getDocumentsPerSecond()));
+		for (Map.Entry<Stage, Histogram> e : histograms.entrySet()) {
+			Histogram h = e.getValue();
+			sb.append(String.format(" %s[n=%d mean=%.2fms p99=%.2fms]", e.getKey().getName(), h.getCount(),
+					h.getMeanMillis(), h.getPercentileMillis(0.99)));
+		}
+		if (!failures.isEmpty()) {
+			sb.append(" failures=").append(getFailures());
+		}
+		return sb.toString();
+	}
+
+	public int getDocumentLogSampling() {
+		return documentLogSampling;
+	}
+
+	/**
+	 * @param documentLogSampling
+	 *            log every n-th document list at debug level, 0 disables the
+	 *            dumps
+	 */
+	public void setDocumentLogSampling(int documentLogSampling) {
+		this.documentLogSampling = documentLogSampling;
+	}
+
+	/**
+	 * Log2 buckets from 1 microsecond up, percentiles are reported as the upper
+	 * bound of their bucket.
+	 */
+	private static class Histogram {
+		private static final int BUCKETS = 40;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos) {
+			long micros = Math.max(1, nanos / 1000);
+			int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+			buckets.incrementAndGet(bucket);
+			count.increment();
+			total.add(nanos);
+
+			long m = max.get();
+			while (nanos > m && !max.compareAndSet(m, nanos)) {
+				m = max.get();
+			}
+		}
+
+		long getCount() {
+			return count.sum();
+		}
+
+		double getMeanMillis() {
+			long n = count.sum();
+			return (n > 0) ? toMillis(total.sum() / n) : 0;
+		}
+
+		double getMaxMillis() {
+			return toMillis(max.get());
+		}
+
+		double getPercentileMillis(double percentile) {
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				n += buckets.get(i);
+			}
+			long rank = (long) Math.ceil(percentile * n);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0) {
+					return Math.min(toMillis(TimeUnit.MICROSECONDS.toNanos(2L << i)), getMaxMillis());
+				}
+			}
+			return 0;
+		}
+
+		void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets.set(i, 0);
+			}
+			count.reset();
+			total.reset();
+			max.set(0);
+		}
+
+		private static double toMillis(long nanos) {
+			return nanos / 1e6;
+		}
+	}
+
+}
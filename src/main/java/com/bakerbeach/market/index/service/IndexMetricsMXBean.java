@@ -0,0 +1,32 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link IndexMetrics}. Per stage values are keyed by stage name
+ * (build, translation, inventory, solr_add, solr_delete), failures by
+ * stage:exception.
+ */
+public interface IndexMetricsMXBean {
+
+	long getProducts();
+
+	long getDocuments();
+
+	double getDocumentsPerSecond();
+
+	Map<String, Long> getCounts();
+
+	Map<String, Double> getMeanMillis();
+
+	Map<String, Double> getP50Millis();
+
+	Map<String, Double> getP99Millis();
+
+	Map<String, Double> getMaxMillis();
+
+	Map<String, Long> getFailures();
+
+	void reset();
+
+}
@@ -0,0 +1,290 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.model.IndexReport;
+
+/**
+ * Staged bulk indexer: the caller thread feeds a bounded queue, a pool of
+ * workers turns items into solr documents and a single sink groups the
+ * documents into large batches. Both queues are bounded, so a slow solr
+ * throttles the workers and the workers throttle the producer.
+ */
+public class IndexPipeline<T> {
+	protected static final Logger log = LoggerFactory.getLogger(IndexPipeline.class);
+
+	private static final Object END = new Object();
+
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = 1000;
+	private int batchSize = 500;
+
+	private final KeyResolver<T> keyResolver;
+	private final DocumentBuilder<T> documentBuilder;
+	private final BatchWriter batchWriter;
+
+	public IndexPipeline(KeyResolver<T> keyResolver, DocumentBuilder<T> documentBuilder, BatchWriter batchWriter) {
+		this.keyResolver = keyResolver;
+		this.documentBuilder = documentBuilder;
+		this.batchWriter = batchWriter;
+	}
+
+	public IndexReport run(Iterable<T> items) {
+		return run(items, new IndexReport());
+	}
+
+	public IndexReport run(Iterable<T> items, IndexReport report) {
+		BlockingQueue<Object> input = new ArrayBlockingQueue<Object>(queueCapacity);
+		BlockingQueue<Object> output = new ArrayBlockingQueue<Object>(queueCapacity);
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers + 1, new PipelineThreadFactory());
+		CountDownLatch workersDone = new CountDownLatch(workers);
+		CountDownLatch sinkDone = new CountDownLatch(1);
+		try {
+			for (int i = 0; i < workers; i++) {
+				executor.execute(new Worker(input, output, report, workersDone));
+			}
+			executor.execute(new Sink(output, report, sinkDone));
+
+			for (T item : items) {
+				if (report.isCancelled()) {
+					break;
+				}
+				input.put(item);
+				report.queued();
+			}
+			for (int i = 0; i < workers; i++) {
+				input.put(END);
+			}
+			workersDone.await();
+			output.put(END);
+			sinkDone.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			log.warn("index pipeline interrupted");
+		} finally {
+			executor.shutdown();
+			report.finish();
+		}
+
+		log.info(String.format("index pipeline finished: %s", report));
+		return report;
+	}
+
+	private class Worker implements Runnable {
+		private final BlockingQueue<Object> input;
+		private final BlockingQueue<Object> output;
+		private final IndexReport report;
+		private final CountDownLatch done;
+
+		Worker(BlockingQueue<Object> input, BlockingQueue<Object> output, IndexReport report, CountDownLatch done) {
+			this.input = input;
+			this.output = output;
+			this.report = report;
+			this.done = done;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run() {
+			try {
+				for (Object next = input.take(); next != END; next = input.take()) {
+					T item = (T) next;
+					String key = keyResolver.getKey(item);
+					if (report.isCancelled()) {
+						report.skipped();
+						continue;
+					}
+					try {
+						List<SolrInputDocument> docs = documentBuilder.build(item);
+						if (docs == null) {
+							report.skipped();
+							continue;
+						}
+						if (docs.isEmpty()) {
+							// still handed to the sink, the writer may have to remove stale entries
+							report.skipped();
+						} else {
+							report.built();
+						}
+						output.put(new Built(key, docs));
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						report.failed(key, "build", e);
+						log.debug(ExceptionUtils.getStackTrace(e));
+					} catch (Throwable e) {
+						// stops the run; the rest of the input is still taken and
+						// skipped, so the producer is not blocked
+						log.error(ExceptionUtils.getStackTrace(e));
+						report.failed(key, "build", e);
+						report.cancel();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	private class Sink implements Runnable {
+		private final BlockingQueue<Object> output;
+		private final IndexReport report;
+		private final CountDownLatch done;
+
+		private final Map<String, List<SolrInputDocument>> batch = new LinkedHashMap<String, List<SolrInputDocument>>();
+		private int docs = 0;
+
+		Sink(BlockingQueue<Object> output, IndexReport report, CountDownLatch done) {
+			this.output = output;
+			this.report = report;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Object next = output.take(); next != END; next = output.take()) {
+					Built built = (Built) next;
+					List<SolrInputDocument> previous = batch.put(built.key, built.docs);
+					docs += built.docs.size() - ((previous != null) ? previous.size() : 0);
+					if (docs >= batchSize || batch.size() >= batchSize) {
+						flush();
+					}
+				}
+				flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+				report.cancel();
+				for (String key : batch.keySet()) {
+					report.failed(key, "write", e);
+				}
+				batch.clear();
+				drain(e);
+			} finally {
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Takes the rest of the output without writing it, so no worker blocks
+		 * on the full queue once the sink is gone.
+		 */
+		private void drain(Throwable cause) {
+			try {
+				for (Object next = output.take(); next != END; next = output.take()) {
+					report.failed(((Built) next).key, "write", cause);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void flush() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			try {
+				batchWriter.write(batch);
+				int products = 0;
+				for (List<SolrInputDocument> productDocs : batch.values()) {
+					if (!productDocs.isEmpty()) {
+						products++;
+					}
+				}
+				report.indexed(products, docs);
+			} catch (Exception e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+				for (String key : batch.keySet()) {
+					report.failed(key, "write", e);
+				}
+			} finally {
+				batch.clear();
+				docs = 0;
+			}
+		}
+	}
+
+	private static class Built {
+		private final String key;
+		private final List<SolrInputDocument> docs;
+
+		Built(String key, List<SolrInputDocument> docs) {
+			this.key = key;
+			this.docs = docs;
+		}
+	}
+
+	private static class PipelineThreadFactory implements ThreadFactory {
+		private static final AtomicInteger pool = new AtomicInteger();
+		private final int poolNumber = pool.incrementAndGet();
+		private final AtomicInteger thread = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, String.format("index-pipeline-%d-%d", poolNumber, thread.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	public interface KeyResolver<T> {
+		String getKey(T item);
+	}
+
+	public interface DocumentBuilder<T> {
+		/**
+		 * @return the documents of the item, an empty list to only remove its
+		 *         existing entries or null to leave the index untouched
+		 */
+		List<SolrInputDocument> build(T item) throws Exception;
+	}
+
+	public interface BatchWriter {
+		void write(Map<String, List<SolrInputDocument>> batch) throws Exception;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.bakerbeach.market.index.service;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -7,12 +8,18 @@ import java.util.Collections;
 import java.util.Currency;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,7 +31,13 @@ import com.bakerbeach.market.core.api.model.AssetGroup;
 import com.bakerbeach.market.core.api.model.Assets;
 import com.bakerbeach.market.core.api.model.ScaledPrice;
 import com.bakerbeach.market.core.api.model.Type;
-import com.bakerbeach.market.index.utils.PriceUtils;
+import com.bakerbeach.market.index.model.CommitPolicy;
+import com.bakerbeach.market.index.model.IndexReport;
+import com.bakerbeach.market.index.utils.FieldNames;
+import com.bakerbeach.market.index.utils.PriceTimeline;
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner.TimeSpan;
 import com.bakerbeach.market.inventory.api.model.InventoryStatus;
 import com.bakerbeach.market.inventory.api.service.InventoryService;
 import com.bakerbeach.market.translation.api.service.TranslationService;
@@ -34,104 +47,427 @@ public class IndexServiceImpl implements IndexService {
 
 	private InventoryService inventoryService;
 	private TranslationService translationService;
+	private volatile TranslationCache translationCache;
+	private TranslationDictionary translationDictionary;
+	private volatile InventoryLoader inventoryLoader;
+	private volatile IndexMetrics metrics;
+	private IndexMetrics registeredMetrics;
+	private String metricsName;
+	private Executor asyncExecutor;
+	private CommitPolicy commitPolicy = CommitPolicy.getDefault();
+	private SolrWriter solrWriter = new SolrWriter();
+	private TimeSpanPlanner timeSpanPlanner = new TimeSpanPlanner();
+	private int indexBatchSize = 500;
+	private PriceActivationScheduler priceActivationScheduler;
 
 	
 	@Override
 	public void delete(List<String> gtins, String solrCode, String status) {
 		String solrCollectionCode = solrCode.concat("_").concat(status).toLowerCase();
-		SolrServer solr = SolrServerFactory.getServer(solrCollectionCode);
-		
-		for (String gtin : gtins) {
-			delete(gtin, solr);
+		String url = SolrServerFactory.getUrl(solrCollectionCode);
+
+		if (gtins.isEmpty()) {
+			return;
+		}
+		try {
+			UpdateRequest request = new UpdateRequest();
+			for (String q : SolrQueryUtils.getTermsQueries("gtin", gtins)) {
+				request.deleteByQuery(q);
+			}
+			commitPolicy.apply(request);
+			deleteByRequest(request, url);
+			if (priceActivationScheduler != null) {
+				priceActivationScheduler.cancel(url, gtins);
+			}
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
 		}
 	}
 
 	@Override
 	public void delete(String gtin, String solrCode, String status) {
 		String solrCollectionCode = solrCode.concat("_").concat(status).toLowerCase();
-		SolrServer solr = SolrServerFactory.getServer(solrCollectionCode);
-		delete(gtin, solr);
+		delete(gtin, SolrServerFactory.getUrl(solrCollectionCode));
 	}
 	
-	private void delete(String gtin, SolrServer solr) {
+	private void delete(String gtin, String url) {
 		try {
 			String q = new StringBuilder("gtin:").append(gtin).toString();
-			solr.deleteByQuery(q, 10000);
+			UpdateRequest request = new UpdateRequest();
+			request.deleteByQuery(q);
+			commitPolicy.apply(request);
+			deleteByRequest(request, url);
+			if (priceActivationScheduler != null) {
+				priceActivationScheduler.cancel(url, Collections.singletonList(gtin));
+			}
 		} catch (Exception e) {
 			log.error(ExceptionUtils.getStackTrace(e));
 		}
 	}
 
+	private void deleteByRequest(UpdateRequest request, String url) throws Exception {
+		SolrServer solr = SolrServerCache.getServer(url);
+		IndexMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		try {
+			solrWriter.process(url, solr, request);
+			commitPolicy.afterBatch(solr);
+			commitPolicy.afterRun(solr);
+		} catch (Exception e) {
+			metrics.failed(IndexMetrics.Stage.SOLR_DELETE, e);
+			throw e;
+		} finally {
+			metrics.record(IndexMetrics.Stage.SOLR_DELETE, start);
+		}
+	}
+
 	@Override
 	public void index(List<RawProduct> products, String code, String status, Date lastUpdate, List<Locale> locales,
 			List<Currency> currencies, List<String> priceGroups) {
+		index(products, code, status, lastUpdate, locales, currencies, priceGroups, new IndexReport());
+	}
+
+	/**
+	 * Runs {@link #index(List, String, String, Date, List, List, List)} on the
+	 * async executor. Cancelling the future stops the run before the next
+	 * product.
+	 */
+	public CompletableFuture<IndexReport> indexAsync(List<RawProduct> products, String code, String status,
+			Date lastUpdate, List<Locale> locales, List<Currency> currencies, List<String> priceGroups) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> index(products, code, status, lastUpdate, locales, currencies, priceGroups, report));
+	}
+
+	private IndexReport index(List<RawProduct> products, String code, String status, Date lastUpdate,
+			List<Locale> locales, List<Currency> currencies, List<String> priceGroups, IndexReport report) {
+		prefetchTranslations(products, locales);
+
+		List<String> gtins = new ArrayList<String>(products.size());
+		for (RawProduct product : products) {
+			if (product.isIndex()) {
+				gtins.add(product.getGtin());
+			}
+		}
+		Map<String, InventoryStatus> inventory = getInventoryLoader().getAll(gtins);
+
+		String url = SolrServerFactory.getUrl(code.concat("_").concat(status).toLowerCase());
+		Map<String, List<SolrInputDocument>> batch = new LinkedHashMap<String, List<SolrInputDocument>>();
 		for (RawProduct product : products) {
-			index(product, code, status, lastUpdate, locales, currencies, priceGroups);
+			if (report.isCancelled()) {
+				break;
+			}
+			report.queued();
+			List<SolrInputDocument> docs = getSolrInputDocuments(url, product, code, lastUpdate, locales, currencies,
+					priceGroups, inventory, report);
+			if (docs != null) {
+				batch.put(product.getGtin(), docs);
+			}
+			if (batch.size() >= indexBatchSize) {
+				add(url, batch, report);
+				batch.clear();
+			}
+		}
+		add(url, batch, report);
+		commit(code, status);
+		report.finish();
+		for (Map.Entry<String, String> failure : report.getFailures().entrySet()) {
+			log.error(String.format("error indexing %s - %s", failure.getKey(), failure.getValue()));
+		}
+
+		return report;
+	}
+
+	/**
+	 * Adds the translations of the products to the
+	 * {@link TranslationDictionary}, e.g. after a catalog import.
+	 */
+	public void updateTranslationDictionary(List<RawProduct> products, List<Locale> locales) throws IOException {
+		Set<TranslationCache.Key> keys = new LinkedHashSet<TranslationCache.Key>();
+		for (RawProduct product : products) {
+			addTranslationKeys(keys, product, locales);
+		}
+		getTranslationCache().updateDictionary(keys);
+	}
+
+	public void prefetchTranslations(List<RawProduct> products, List<Locale> locales) {
+		try {
+			Set<TranslationCache.Key> keys = new LinkedHashSet<TranslationCache.Key>();
+			for (RawProduct product : products) {
+				if (product.isIndex()) {
+					addTranslationKeys(keys, product, locales);
+				}
+			}
+			getTranslationCache().prefetch(keys);
+		} catch (Exception e) {
+			log.warn(String.format("translation prefetch failed: %s", e.getMessage()));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void addTranslationKeys(Set<TranslationCache.Key> keys, RawProduct product, List<Locale> locales) {
+		for (Locale locale : locales) {
+			keys.add(new TranslationCache.Key("brand", "text", product.getBrand(), locale));
+			keys.add(new TranslationCache.Key("size", "text", product.getSize(), locale));
+			keys.add(new TranslationCache.Key("color", "text", product.getColor(), locale));
+			keys.add(new TranslationCache.Key("diet", "text", product.getDiet(), locale));
+			keys.add(new TranslationCache.Key("product.code", "text", product.getGtin(), locale));
+			if (product.get("colorpicker") != null) {
+				for (String colorpicker : (List<String>) product.get("colorpicker")) {
+					keys.add(new TranslationCache.Key("color", "text", colorpicker, locale));
+				}
+			}
+			if (product.getVariant1() != null) {
+				keys.add(new TranslationCache.Key("variant_1", "text", product.getVariant1(), locale));
+			}
+			if (product.getVariant2() != null) {
+				keys.add(new TranslationCache.Key("variant_2", "text", product.getVariant2(), locale));
+			}
+			for (String category : product.getCategories()) {
+				keys.add(new TranslationCache.Key("category", "text", category, locale));
+			}
+		}
+	}
+
+	/**
+	 * Stock only update: sets the moq and available fields of all time span
+	 * documents of the given gtins without rebuilding them.
+	 */
+	public void updateInventory(Map<String, InventoryStatus> inventory, String code, String status,
+			List<String> priceGroups) {
+		try {
+			String solrCollectionCode = code.concat("_").concat(status).toLowerCase();
+			String url = SolrServerFactory.getUrl(solrCollectionCode);
+			SolrServer solr = SolrServerCache.getServer(url);
+
+			new InventoryUpdater("gtin", solrWriter, priceActivationScheduler).update(url, solr, inventory, priceGroups,
+					commitPolicy);
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
 		}
 	}
 
 	@Override
 	public void index(RawProduct product, String code, String status, Date lastUpdate, List<Locale> locales,
 			List<Currency> currencies, List<String> priceGroups) {
+		// resolves the translations of all locales and fields at once
+		prefetchTranslations(Collections.singletonList(product), locales);
+		String url = SolrServerFactory.getUrl(code.concat("_").concat(status).toLowerCase());
+		IndexReport report = new IndexReport();
+		List<SolrInputDocument> docs = getSolrInputDocuments(url, product, code, lastUpdate, locales, currencies,
+				priceGroups, null, report);
+		if (docs != null) {
+			add(url, Collections.singletonMap(product.getGtin(), docs), report);
+		}
+		commit(code, status);
+	}
+
+	private void commit(String code, String status) {
 		try {
 			String solrCollectionCode = code.concat("_").concat(status).toLowerCase();
-			SolrServer solr = SolrServerFactory.getServer(solrCollectionCode);
-
-//			// delete existing entries
-//			try {
-//				String q = new StringBuilder("gtin:").append(product.getGtin()).toString();
-//				solr.deleteByQuery(q);
-//			} catch (Exception e) {
-//				log.error(ExceptionUtils.getStackTrace(e));
-//			}
+			commitPolicy.afterRun(SolrServerFactory.getServer(solrCollectionCode));
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
 
+	/**
+	 * @return the documents of the product, null if it is not indexed or
+	 *         could not be built
+	 */
+	private List<SolrInputDocument> getSolrInputDocuments(String url, RawProduct product, String code,
+			Date lastUpdate, List<Locale> locales, List<Currency> currencies, List<String> priceGroups,
+			Map<String, InventoryStatus> inventory, IndexReport report) {
+		try {
 			if (!product.isIndex()) {
 				log.info(String.format("indexed is false for gtin=%s", product.getGtin()));
-				return;
+				report.skipped();
+				if (priceActivationScheduler != null) {
+					priceActivationScheduler.cancel(url, Collections.singletonList(product.getGtin()));
+				}
+				return null;
 			}
 
-			Date indexTime = product.getStartDate();
+			IndexMetrics metrics = getMetrics();
 
-			// get all relevant time spans
-			List<Date> dates = new ArrayList<Date>();
-			dates.add(indexTime);
-			dates.add(getDefaultTo().getTime());
+			// inventory and prices are resolved once for all time spans
+			InventoryStatus inventoryStatus = (inventory != null) ? inventory.get(product.getGtin())
+					: getInventoryLoader().get(product.getGtin());
 
-			List<ScaledPrice> prices = product.getPrices();
-			for (ScaledPrice price : prices) {
-				Date start = price.getStart();
-				if (start != null && start.after(indexTime)) {
-					dates.add(start);
-				}
-			}
-			Collections.sort(dates);
+			long start = System.nanoTime();
+			ProductIndexData data = getProductIndexData(product, inventoryStatus, locales, currencies, priceGroups);
+			List<TimeSpan> spans = timeSpanPlanner.plan(getTimeSpanDates(product), data.getPrices(), new Date());
 
 			// create solr docs for each time span
 			List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
-			Iterator<Date> iterator = dates.iterator();
-			for (Date to = iterator.next(); iterator.hasNext();) {
-				Date from = to;
-				to = iterator.next();
+			for (TimeSpan span : spans) {
 				try {
-					SolrInputDocument doc = getSolrInputDocument(code, product, lastUpdate, from, to, locales,
-							currencies, priceGroups);
+					SolrInputDocument doc = getSolrInputDocument(code, product, lastUpdate, span.getFrom(),
+							span.getTo(), locales, currencies, priceGroups, data);
 					docs.add(doc);
 				} catch (Exception e) {
+					metrics.failed(IndexMetrics.Stage.BUILD, e);
+					report.failed(product.getGtin(), "build", e);
 					log.error(ExceptionUtils.getStackTrace(e));
 				}
 			}
-			if (!docs.isEmpty()) {
-				solr.add(docs, 10000);
-				log.info(docs.toString());
+			metrics.record(IndexMetrics.Stage.BUILD, start);
+			report.built();
+
+			return docs;
+		} catch (Exception e) {
+			report.failed(product.getGtin(), "index", e);
+			log.error(ExceptionUtils.getStackTrace(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the documents of a batch of products with a single update
+	 * request; products without documents are left untouched.
+	 */
+	private void add(String url, Map<String, List<SolrInputDocument>> batch, IndexReport report) {
+		Map<String, List<SolrInputDocument>> upcoming = null;
+		Map<String, List<SolrInputDocument>> current = new LinkedHashMap<String, List<SolrInputDocument>>();
+		List<String> empty = new ArrayList<String>();
+		for (Map.Entry<String, List<SolrInputDocument>> e : batch.entrySet()) {
+			if (e.getValue().isEmpty()) {
+				empty.add(e.getKey());
+			} else {
+				current.put(e.getKey(), e.getValue());
+			}
+		}
+		if (priceActivationScheduler != null) {
+			if (!empty.isEmpty()) {
+				priceActivationScheduler.cancel(url, empty);
+			}
+			// without a span in effect yet the indexed documents are still removed
+			upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+			current = PriceActivationScheduler.split(current, upcoming, new Date());
+		}
+		if (current.isEmpty()) {
+			return;
+		}
+
+		IndexMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		try {
+			SolrServer solr = SolrServerCache.getServer(url);
+			UpdateRequest request = new UpdateRequest();
+			Map<String, List<String>> idsByGtin = new LinkedHashMap<String, List<String>>();
+			int docs = 0;
+			for (Map.Entry<String, List<SolrInputDocument>> e : current.entrySet()) {
+				request.add(e.getValue());
+				// spans merged or expired since the last run
+				List<String> ids = new ArrayList<String>(e.getValue().size());
+				for (SolrInputDocument doc : e.getValue()) {
+					ids.add((String) doc.getFieldValue("id"));
+				}
+				idsByGtin.put(e.getKey(), ids);
+				docs += ids.size();
+			}
+			for (String q : SolrQueryUtils.getReplaceQueries("gtin", "id", idsByGtin)) {
+				request.deleteByQuery(q);
+			}
+			commitPolicy.apply(request);
+			solrWriter.process(url, solr, request);
+			commitPolicy.afterBatch(solr);
+			metrics.indexed(current.size(), docs);
+			report.indexed(current.size(), docs);
+			if (upcoming != null) {
+				priceActivationScheduler.schedule(url, "gtin", upcoming);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug(String.format("indexed %d documents for %d gtins", docs, current.size()));
+				if (metrics.isSampled()) {
+					log.debug(current.toString());
+				}
 			}
 		} catch (Exception e) {
+			metrics.failed(IndexMetrics.Stage.SOLR_ADD, e);
+			for (String gtin : current.keySet()) {
+				report.failed(gtin, "index", e);
+			}
 			log.error(ExceptionUtils.getStackTrace(e));
+		} finally {
+			metrics.record(IndexMetrics.Stage.SOLR_ADD, start);
+		}
+	}
+
+	/**
+	 * @return sorted boundaries of the time spans, the
+	 *         {@link TimeSpanPlanner} dedupes and merges them
+	 */
+	protected List<Date> getTimeSpanDates(RawProduct product) {
+		Date indexTime = product.getStartDate();
+
+		// get all relevant time spans
+		List<Date> dates = new ArrayList<Date>();
+		dates.add(indexTime);
+		dates.add(getDefaultTo().getTime());
+
+		List<ScaledPrice> prices = product.getPrices();
+		for (ScaledPrice price : prices) {
+			Date start = price.getStart();
+			if (start != null && start.after(indexTime)) {
+				dates.add(start);
+			}
 		}
+		Collections.sort(dates);
+
+		return dates;
 	}
 
 	protected SolrInputDocument getSolrInputDocument(String shop, RawProduct product, Date lastUpdate, Date from, Date to,
 			List<Locale> locales, List<Currency> currencies, List<String> groups) {
+		ProductIndexData data = getProductIndexData(product, getInventoryLoader().get(product.getGtin()), locales,
+				currencies, groups);
+		return getSolrInputDocument(shop, product, lastUpdate, from, to, locales, currencies, groups, data);
+	}
+
+	protected ProductIndexData getProductIndexData(RawProduct product, InventoryStatus inventoryStatus,
+			List<Locale> locales, List<Currency> currencies, List<String> groups) {
+		ProductIndexData data = new ProductIndexData();
+		data.setInventoryStatus(inventoryStatus);
+		data.setPrices(PriceTimeline.ofScaledPrices(product.getPrices()));
+		data.setFieldNames(FieldNames.get(locales, currencies, groups));
+
+		return data;
+	}
+
+	protected SolrInputDocument getSolrInputDocument(String shop, RawProduct product, Date lastUpdate, Date from, Date to,
+			List<Locale> locales, List<Currency> currencies, List<String> groups, ProductIndexData data) {
+		SolrInputDocument productDocument = data.getProductDocument();
+		if (productDocument == null) {
+			productDocument = getProductDocument(shop, product, lastUpdate, locales, currencies, groups, data);
+			data.setProductDocument(productDocument);
+		}
+		SolrInputDocument doc = productDocument.deepCopy();
+
+		String id = getId(doc, product.getGtin(), product.getPrimaryGroup().getCode(), from);
+		doc.addField("id", id);
+		doc.addField("active_from", from);
+		doc.addField("active_to", to);
+
+		FieldNames fieldNames = data.getFieldNames();
+		PriceTimeline prices = data.getPrices();
+		for (int c = 0; c < currencies.size(); c++) {
+			Currency currency = currencies.get(c);
+			for (int g = 0; g < groups.size(); g++) {
+				BigDecimal value = prices.getPrice(currency, groups.get(g), from);
+				doc.addField(fieldNames.getPriceField(c, g), value);
+			}
+		}
+
+		return doc;
+	}
+
+	/**
+	 * @return the fields shared by all time span documents of the product
+	 */
+	protected SolrInputDocument getProductDocument(String shop, RawProduct product, Date lastUpdate,
+			List<Locale> locales, List<Currency> currencies, List<String> groups, ProductIndexData data) {
 		SolrInputDocument doc = new SolrInputDocument();
+		FieldNames fieldNames = data.getFieldNames();
 
 		String gtin = product.getGtin();
 		List<String> categories = product.getCategories();
@@ -143,8 +479,6 @@ public class IndexServiceImpl implements IndexService {
 		RawGroupTag primaryGroup = product.getPrimaryGroup();
 		RawGroupTag secondaryGroup = product.getSecondaryGroup();
 
-		String id = getId(doc, product.getGtin(), primaryGroup.getCode(), from);
-		doc.addField("id", id);
 		doc.addField("gtin", gtin);
 		doc.addField("type", type);
 		doc.addField("last_update", lastUpdate);
@@ -176,27 +510,25 @@ public class IndexServiceImpl implements IndexService {
 				doc.setField("secondary_group_sort", product.getSort());
 			}
 		}
-		doc.addField("active_from", from);
-		doc.addField("active_to", to);
-		addI18NFields(doc, shop, "brand", brand, "brand", "text", locales, false);
-		addI18NFields(doc, shop, "size", size, "size", "text", locales, false);
-		addI18NFields(doc, shop, "color", color, "color", "text", locales, false);
-		addI18NFields(doc, shop, "diet", diet, "diet", "text", locales, false);
+		addI18NFields(doc, fieldNames, "brand", brand, "brand", "text", locales, false);
+		addI18NFields(doc, fieldNames, "size", size, "size", "text", locales, false);
+		addI18NFields(doc, fieldNames, "color", color, "color", "text", locales, false);
+		addI18NFields(doc, fieldNames, "diet", diet, "diet", "text", locales, false);
 
 		if (product.get("colorpicker") != null) {
 			for (String colorpicker : (List<String>) product.get("colorpicker")) {
-				addI18NFields(doc, shop, "colorpicker", colorpicker, "color", "text", locales, true);			
+				addI18NFields(doc, fieldNames, "colorpicker", colorpicker, "color", "text", locales, true);			
 			}			
 		}
 
 		if (product.getVariant1() != null) {
-			addI18NFields(doc, shop, "variant_1", product.getVariant1(), "variant_1", "text", locales, false);
+			addI18NFields(doc, fieldNames, "variant_1", product.getVariant1(), "variant_1", "text", locales, false);
 		}
 		if (product.getVariant1Sort() != null) {
 			doc.addField("variant_1_sort", product.getVariant1Sort());
 		}
 		if (product.getVariant2() != null) {
-			addI18NFields(doc, shop, "variant_2", product.getVariant2(), "variant_2", "text", locales, false);
+			addI18NFields(doc, fieldNames, "variant_2", product.getVariant2(), "variant_2", "text", locales, false);
 		}
 		if (product.getVariant2Sort() != null) {
 			doc.addField("variant_2_sort", product.getVariant2Sort());
@@ -205,52 +537,36 @@ public class IndexServiceImpl implements IndexService {
 		// doc.addField("primary_group_sort", product.getSort());
 		// doc.addField("secondary_group_sort", product.getSort());
 
-		addI18NFields(doc, shop, "name", gtin, "product.code", "text", locales, false);
+		addI18NFields(doc, fieldNames, "name", gtin, "product.code", "text", locales, false);
 
 		// doc.setField("url",
 		// "/product/"+doc.getField("name_en").getFirstValue().toString().toLowerCase().replace("
 		// ", "-")+"-"+ primaryGroup.getCode() +".html");
 
 		for (String category : categories) {
-			addI18NFields(doc, shop, "category", category, "category", "text", locales, true);
-		}
-
-		for (Currency currency : currencies) {
-			try {
-				for (String group : groups) {
-					String key = new StringBuilder(currency.getCurrencyCode()).append("_").append(group)
-							.append("_std_price").toString().toLowerCase();
-					BigDecimal value = PriceUtils.getStdPrice(product.getPrices(), currency, group, null);
-					doc.addField(key, value);
-				}
-			} catch (Exception e) {
-				log.warn(String.format("missing price information for gtin=%s and currency=%s", currency.toString(),
-						product.getGtin()));
-			}
+			addI18NFields(doc, fieldNames, "category", category, "category", "text", locales, true);
 		}
 
-		for (Currency currency : currencies) {
-			try {
-				for (String group : groups) {
-					String key = new StringBuilder(currency.getCurrencyCode()).append("_").append(group)
-							.append("_price").toString().toLowerCase();
-					BigDecimal value = PriceUtils.getPrice(product.getPrices(), currency, group, from);
-					doc.addField(key, value);
+		PriceTimeline prices = data.getPrices();
+		for (int c = 0; c < currencies.size(); c++) {
+			Currency currency = currencies.get(c);
+			for (int g = 0; g < groups.size(); g++) {
+				BigDecimal value = prices.getStdPrice(currency, groups.get(g));
+				if (value != null) {
+					doc.addField(fieldNames.getStdPriceField(c, g), value);
+				} else {
+					log.warn(String.format("missing price information for gtin=%s and currency=%s", product.getGtin(),
+							currency.toString()));
 				}
-			} catch (Exception e) {
-				log.warn(String.format("missing price information for gtin=%s and currency=%s", currency.toString(),
-						product.getGtin()));
 			}
 		}
 
 		for (String key : product.getLogos().keySet()) {
-			String codeField = new StringBuilder("logos_").append(key).append("_codes").toString().toLowerCase();
-			doc.addField(codeField, product.getLogos().get(key));
+			doc.addField(FieldNames.getLogoField(key), product.getLogos().get(key));
 		}
 
 		for (String key : product.getTags().keySet()) {
-			String codeField = new StringBuilder("tags_").append(key).append("_codes").toString().toLowerCase();
-			doc.addField(codeField, product.getTags().get(key));
+			doc.addField(FieldNames.getTagField(key), product.getTags().get(key));
 		}
 
 		// TODO: more generic
@@ -259,86 +575,45 @@ public class IndexServiceImpl implements IndexService {
 			List<Asset> smallListingAssets = assets.get("listing", AssetGroup.SIZE_MEDIUM);
 			for (int i = 0; i < smallListingAssets.size(); i++) {
 				Asset asset = smallListingAssets.get(i);
-				String pathCodeField = new StringBuilder("listing_").append(AssetGroup.SIZE_MEDIUM).append("_")
-						.append(i).append("_asset_path").toString().toLowerCase();
-				doc.addField(pathCodeField, asset.getPath());
-
-				String typeCodeField = new StringBuilder("listing_").append(AssetGroup.SIZE_MEDIUM).append("_")
-						.append(i).append("_asset_type").toString().toLowerCase();
-				doc.addField(typeCodeField, asset.getType());
+				doc.addField(FieldNames.getListingAssetPathField(i), asset.getPath());
+				doc.addField(FieldNames.getListingAssetTypeField(i), asset.getType());
 
 				// TODO: alt text per language
 			}
 		}
 
-		try {
-			InventoryStatus status = inventoryService.getInventoryStatus(gtin);
-
-			for (String group : groups) {
-				// TODO: get buffer per price group and gtin
+		addInventoryFields(doc, fieldNames, gtin, data.getInventoryStatus(), groups);
 
-				Integer stock = status.getStock();
-				Integer outOfStockLimit = status.getOutOfStockLimit();
-				Integer moq = stock - outOfStockLimit;
-
-				String moqFieldName = new StringBuilder(group).append("_moq").toString().toLowerCase();
-				doc.addField(moqFieldName, moq);
-
-				String visibleFieldName = new StringBuilder(group).append("_available").toString().toLowerCase();
-				doc.addField(visibleFieldName, (moq > 0) ? 1 : 0);
-			}
-		} catch (Exception e) {
-			log.error(String.format("error reading inventory status for gtin %s", gtin));
+		return doc;
+	}
 
-			for (String group : groups) {
-				String moqFieldName = new StringBuilder(group).append("_moq").toString().toLowerCase();
-				doc.addField(moqFieldName, 0);
+	protected void addInventoryFields(SolrInputDocument doc, FieldNames fieldNames, String gtin,
+			InventoryStatus status, List<String> groups) {
+		int moq = InventoryLoader.getMoq(gtin, status);
 
-				String visibleFieldName = new StringBuilder(group).append("_available").toString().toLowerCase();
-				doc.addField(visibleFieldName, 0);
-			}
+		for (int g = 0; g < groups.size(); g++) {
+			doc.addField(fieldNames.getMoqField(g), moq);
+			doc.addField(fieldNames.getAvailableField(g), (moq > 0) ? 1 : 0);
 		}
-
-		return doc;
 	}
 
 	// private void addI18NFields(SolrInputDocument doc, String shop, String
 	// field, String code, List<Locale> locales,
 	// Boolean multi) {
-	// addI18NFields(doc, shop, field, code, ""field, "text", locales, multi);
+	// addI18NFields(doc, fieldNames, field, code, ""field, "text", locales, multi);
 	// }
 
-	private void addI18NFields(SolrInputDocument doc, String shop, String field, String code, String translationTag,
-			String translationType, List<Locale> locales, Boolean multi) {
-		String codeField = getCodeField(field, multi);
-		doc.addField(codeField, code);
+	private void addI18NFields(SolrInputDocument doc, FieldNames fieldNames, String field, String code,
+			String translationTag, String translationType, List<Locale> locales, Boolean multi) {
+		FieldNames.I18NFields fields = fieldNames.getI18NFields(field, multi);
+		doc.addField(fields.getCodeField(), code);
 
-		for (Locale locale : locales) {
-			String langField = getLocaleField(field, locale, multi);
-			String msg = translationService.getMessage(translationTag, translationType, code, null, code, locale);
-			doc.addField(langField, msg);
+		for (int i = 0; i < locales.size(); i++) {
+			String msg = getTranslationCache().getMessage(translationTag, translationType, code, locales.get(i));
+			doc.addField(fields.getLocaleField(i), msg);
 		}
 	}
 
-	private String getCodeField(String field, Boolean multi) {
-		StringBuilder sb = new StringBuilder(field);
-		if (multi)
-			sb.append("_codes");
-		else
-			sb.append("_code");
-
-		return sb.toString();
-	}
-
-	private String getLocaleField(String field, Locale locale, Boolean multi) {
-		StringBuilder sb = new StringBuilder(field);
-		sb.append("_").append(locale.getLanguage());
-		if (multi)
-			sb.append("s");
-
-		return sb.toString();
-	}
-
 	private String getId(SolrInputDocument doc, String gtin, String primaryGroup, Date from) {
 		StringBuilder id = new StringBuilder(gtin);
 		id.append("-").append(primaryGroup);
@@ -371,4 +646,171 @@ public class IndexServiceImpl implements IndexService {
 		this.translationService = translationService;
 	}
 
+	public InventoryLoader getInventoryLoader() {
+		if (inventoryLoader == null) {
+			synchronized (this) {
+				if (inventoryLoader == null) {
+					InventoryLoader loader = new InventoryLoader(inventoryService);
+					loader.setMetrics(getMetrics());
+					inventoryLoader = loader;
+				}
+			}
+		}
+		return inventoryLoader;
+	}
+
+	public void setInventoryLoader(InventoryLoader inventoryLoader) {
+		this.inventoryLoader = inventoryLoader;
+	}
+
+	public TranslationCache getTranslationCache() {
+		if (translationCache == null) {
+			synchronized (this) {
+				if (translationCache == null) {
+					TranslationCache cache = new TranslationCache(translationService);
+					cache.setDictionary(translationDictionary);
+					cache.setMetrics(getMetrics());
+					translationCache = cache;
+				}
+			}
+		}
+		return translationCache;
+	}
+
+	public void setTranslationCache(TranslationCache translationCache) {
+		this.translationCache = translationCache;
+	}
+
+	public TranslationDictionary getTranslationDictionary() {
+		return translationDictionary;
+	}
+
+	/**
+	 * @param translationDictionary
+	 *            memory mapped labels shared with the other indexers of the
+	 *            host, looked up before the translation service
+	 */
+	public void setTranslationDictionary(TranslationDictionary translationDictionary) {
+		this.translationDictionary = translationDictionary;
+	}
+
+	/**
+	 * @return the executor of the async calls, {@link IndexExecutors#getDefault()}
+	 *         unless set
+	 */
+	public Executor getAsyncExecutor() {
+		return (asyncExecutor != null) ? asyncExecutor : IndexExecutors.getDefault();
+	}
+
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	public SolrWriter getSolrWriter() {
+		return solrWriter;
+	}
+
+	/**
+	 * @param solrWriter
+	 *            retries, circuit breakers and dead letter spool of all solr
+	 *            updates of this service
+	 */
+	public void setSolrWriter(SolrWriter solrWriter) {
+		this.solrWriter = solrWriter;
+	}
+
+	public TimeSpanPlanner getTimeSpanPlanner() {
+		return timeSpanPlanner;
+	}
+
+	public void setTimeSpanPlanner(TimeSpanPlanner timeSpanPlanner) {
+		this.timeSpanPlanner = timeSpanPlanner;
+	}
+
+	public PriceActivationScheduler getPriceActivationScheduler() {
+		return priceActivationScheduler;
+	}
+
+	/**
+	 * @param priceActivationScheduler
+	 *            if set only the span in effect is indexed, the scheduler
+	 *            swaps in the upcoming ones when they start
+	 */
+	public void setPriceActivationScheduler(PriceActivationScheduler priceActivationScheduler) {
+		this.priceActivationScheduler = priceActivationScheduler;
+	}
+
+	public CommitPolicy getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	/**
+	 * @param commitPolicy
+	 *            commits of all runs of this service, commitWithin 10s by
+	 *            default
+	 */
+	public void setCommitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+	}
+
+	/**
+	 * @return the metrics of this service, registered in JMX as
+	 *         com.bakerbeach.market.index:type=IndexMetrics,name=&lt;metricsName&gt;
+	 *         unless set explicitly; further instances with the same name get
+	 *         #2, #3, ... appended
+	 */
+	public IndexMetrics getMetrics() {
+		if (metrics == null) {
+			synchronized (this) {
+				if (metrics == null) {
+					IndexMetrics m = new IndexMetrics();
+					m.register((metricsName != null) ? metricsName : getClass().getSimpleName());
+					registeredMetrics = m;
+					metrics = m;
+				}
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Unregisters the metrics this service registered in JMX; set as
+	 * destroy-method of the bean, so a redeploy does not leave them behind.
+	 */
+	public synchronized void shutdown() {
+		if (registeredMetrics != null) {
+			registeredMetrics.unregister();
+			registeredMetrics = null;
+		}
+	}
+
+	public void setMetrics(IndexMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public String getMetricsName() {
+		return metricsName;
+	}
+
+	/**
+	 * @param metricsName
+	 *            JMX name of the metrics, e.g. the shop; the class name if not
+	 *            set
+	 */
+	public void setMetricsName(String metricsName) {
+		this.metricsName = metricsName;
+	}
+
+	public int getIndexBatchSize() {
+		return indexBatchSize;
+	}
+
+	/**
+	 * @param indexBatchSize
+	 *            products replaced per update request, 500 by default
+	 */
+	public void setIndexBatchSize(int indexBatchSize) {
+		this.indexBatchSize = Math.max(1, indexBatchSize);
+	}
+
 }
@@ -0,0 +1,166 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.inventory.api.model.InventoryStatus;
+import com.bakerbeach.market.inventory.api.service.InventoryService;
+
+/**
+ * Resolves the inventory status of a whole batch of codes up front with a
+ * bounded parallel fan-out, so every time span document of a product reuses
+ * the same lookup.
+ */
+public class InventoryLoader {
+	protected static final Logger log = LoggerFactory.getLogger(InventoryLoader.class);
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private InventoryService inventoryService;
+	private IndexMetrics metrics;
+	private int parallelism = 8;
+
+	private volatile ExecutorService executor;
+
+	public InventoryLoader() {
+	}
+
+	public InventoryLoader(InventoryService inventoryService) {
+		this.inventoryService = inventoryService;
+	}
+
+	/**
+	 * @return stock above the out of stock limit, 0 if the status is missing
+	 *         or incomplete
+	 */
+	public static int getMoq(String code, InventoryStatus status) {
+		if (status == null) {
+			return 0;
+		}
+		try {
+			// TODO: get buffer per price group and gtin
+			return status.getStock() - status.getOutOfStockLimit();
+		} catch (Exception e) {
+			log.error(String.format("error reading inventory status for %s", code));
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the status or null if it could not be read
+	 */
+	public InventoryStatus get(String code) {
+		long start = System.nanoTime();
+		try {
+			return inventoryService.getInventoryStatus(code);
+		} catch (Exception e) {
+			if (metrics != null) {
+				metrics.failed(IndexMetrics.Stage.INVENTORY, e);
+			}
+			log.error(String.format("error reading inventory status for %s", code));
+			return null;
+		} finally {
+			if (metrics != null) {
+				metrics.record(IndexMetrics.Stage.INVENTORY, start);
+			}
+		}
+	}
+
+	/**
+	 * @return the status per code, codes that could not be read are missing
+	 */
+	public Map<String, InventoryStatus> getAll(Collection<String> codes) {
+		Map<String, InventoryStatus> result = new HashMap<String, InventoryStatus>();
+		Collection<String> distinct = new LinkedHashSet<String>(codes);
+
+		if (parallelism <= 1 || distinct.size() <= 1) {
+			for (String code : distinct) {
+				InventoryStatus status = get(code);
+				if (status != null) {
+					result.put(code, status);
+				}
+			}
+			return result;
+		}
+
+		List<String> keys = new ArrayList<String>(distinct);
+		List<Callable<InventoryStatus>> tasks = new ArrayList<Callable<InventoryStatus>>(keys.size());
+		for (String code : keys) {
+			tasks.add(() -> get(code));
+		}
+		try {
+			List<Future<InventoryStatus>> futures = getExecutor().invokeAll(tasks);
+			for (int i = 0; i < keys.size(); i++) {
+				InventoryStatus status = futures.get(i).get();
+				if (status != null) {
+					result.put(keys.get(i), status);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.error(String.format("error reading inventory status: %s", e.getCause()));
+		}
+		return result;
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor == null) {
+			synchronized (this) {
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(parallelism, r -> {
+						Thread t = new Thread(r, "inventory-loader-" + threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+				}
+			}
+		}
+		return executor;
+	}
+
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	public InventoryService getInventoryService() {
+		return inventoryService;
+	}
+
+	public void setInventoryService(InventoryService inventoryService) {
+		this.inventoryService = inventoryService;
+	}
+
+	public IndexMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(IndexMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.model.CommitPolicy;
+import com.bakerbeach.market.index.utils.FieldNames;
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+import com.bakerbeach.market.inventory.api.model.InventoryStatus;
+
+/**
+ * Writes stock changes as atomic "set" updates of the &lt;group&gt;_moq and
+ * &lt;group&gt;_available fields on every time span document of the given
+ * products, leaving all other fields untouched. Requires the update log and
+ * stored fields in the solr schema. Documents are paged by id, which stays
+ * stable while they are updated.
+ */
+public class InventoryUpdater {
+	protected static final Logger log = LoggerFactory.getLogger(InventoryUpdater.class);
+
+	private static final int ROWS = 1000;
+
+	private final String keyField;
+	private final SolrWriter solrWriter;
+	private final PriceActivationScheduler priceActivationScheduler;
+
+	public InventoryUpdater(String keyField, SolrWriter solrWriter) {
+		this(keyField, solrWriter, null);
+	}
+
+	/**
+	 * @param priceActivationScheduler
+	 *            gets the new stock for the pending documents of the products,
+	 *            may be null
+	 */
+	public InventoryUpdater(String keyField, SolrWriter solrWriter,
+			PriceActivationScheduler priceActivationScheduler) {
+		this.keyField = keyField;
+		this.solrWriter = solrWriter;
+		this.priceActivationScheduler = priceActivationScheduler;
+	}
+
+	/**
+	 * @return number of documents updated
+	 */
+	public int update(String url, SolrServer solr, Map<String, InventoryStatus> inventory, List<String> priceGroups,
+			CommitPolicy commitPolicy) throws Exception {
+		if (inventory.isEmpty()) {
+			return 0;
+		}
+
+		if (priceActivationScheduler != null) {
+			// before the indexed documents, so no activation brings back the old stock
+			Map<String, Map<String, Object>> fields = new LinkedHashMap<String, Map<String, Object>>();
+			for (Entry<String, InventoryStatus> e : inventory.entrySet()) {
+				fields.put(e.getKey(), getFields(e.getKey(), e.getValue(), priceGroups));
+			}
+			priceActivationScheduler.patch(url, fields);
+		}
+
+		UpdateRequest request = new UpdateRequest();
+		int count = 0;
+		for (String q : SolrQueryUtils.getTermsQueries(keyField, new ArrayList<String>(inventory.keySet()))) {
+			SolrQuery query = new SolrQuery(q);
+			query.setFields("id", keyField);
+			query.setRows(ROWS);
+			query.addSortField("id", SolrQuery.ORDER.asc);
+
+			for (String last = null;;) {
+				if (last != null) {
+					query.setFilterQueries(SolrQueryUtils.getAfterQuery("id", last));
+				}
+				SolrDocumentList results = solr.query(query).getResults();
+				for (SolrDocument result : results) {
+					String key = (String) result.getFieldValue(keyField);
+					last = (String) result.getFieldValue("id");
+					request.add(getUpdate(last, key, inventory.get(key), priceGroups));
+					count++;
+				}
+				if (results.size() < ROWS) {
+					break;
+				}
+			}
+		}
+
+		if (count > 0) {
+			commitPolicy.apply(request);
+			solrWriter.process(url, solr, request);
+			commitPolicy.afterBatch(solr);
+			commitPolicy.afterRun(solr);
+		}
+		log.info(String.format("updated inventory of %d products in %d documents", inventory.size(), count));
+
+		return count;
+	}
+
+	protected SolrInputDocument getUpdate(String id, String key, InventoryStatus status, List<String> priceGroups) {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("id", id);
+		for (Entry<String, Object> e : getFields(key, status, priceGroups).entrySet()) {
+			doc.addField(e.getKey(), Collections.singletonMap("set", e.getValue()));
+		}
+		return doc;
+	}
+
+	protected Map<String, Object> getFields(String key, InventoryStatus status, List<String> priceGroups) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		int moq = InventoryLoader.getMoq(key, status);
+		for (String priceGroup : priceGroups) {
+			fields.put(FieldNames.getMoqField(priceGroup), moq);
+			fields.put(FieldNames.getAvailableField(priceGroup), (moq > 0) ? 1 : 0);
+		}
+		return fields;
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory stand-in for {@link SolrCollectionAdmin}, for tests and single
+ * core setups without the collections API. Aliases only live in this
+ * instance, so urls still have to point at the collections themselves.
+ */
+public class LocalCollectionAdmin implements CollectionAdmin {
+	private final Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+
+	@Override
+	public String getAliasTarget(String baseUrl, String alias) {
+		return aliases.get(baseUrl + "/" + alias);
+	}
+
+	@Override
+	public void createAlias(String baseUrl, String alias, String collection) {
+		aliases.put(baseUrl + "/" + alias, collection);
+	}
+
+}
@@ -0,0 +1,424 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.index.model.CommitPolicy;
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+
+/**
+ * Current span only indexing. The services send just the document of the
+ * span in effect and hand the documents of the upcoming spans to this
+ * scheduler, which keeps them in a queue ordered by active_from and replaces
+ * the indexed document of the product when the next span starts, in one
+ * request adding the new document and deleting the old one.
+ * <p>
+ * Activations that fail are queued again with exponential backoff until
+ * they succeed or the product is indexed again. The queue lives in memory
+ * only: after a restart upcoming spans switch with the next index run of their
+ * products.
+ */
+public class PriceActivationScheduler {
+	protected static final Logger log = LoggerFactory.getLogger(PriceActivationScheduler.class);
+
+	private final DelayQueue<Activation> queue = new DelayQueue<Activation>();
+	private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong version = new AtomicLong();
+	// fields changed after the documents of a product were scheduled
+	private final ConcurrentMap<String, Map<String, Object>> patches = new ConcurrentHashMap<String, Map<String, Object>>();
+	// active_from of the document last activated per product
+	private final ConcurrentMap<String, Long> activated = new ConcurrentHashMap<String, Long>();
+	private final Object lock = new Object();
+	private volatile Thread worker;
+
+	private SolrWriter solrWriter = new SolrWriter();
+	private CommitPolicy commitPolicy = CommitPolicy.hotfix(1000);
+	private long retryBackoff = 1000;
+	private long maxRetryBackoff = 60000;
+
+	/**
+	 * Splits a batch of time span documents by product into the document in
+	 * effect and the upcoming ones, by their active_from and active_to.
+	 * Expired documents are dropped.
+	 *
+	 * @param upcoming
+	 *            receives the documents starting after now of every product
+	 * @return the document in effect of every product, none for products
+	 *         without one
+	 */
+	public static Map<String, List<SolrInputDocument>> split(Map<String, List<SolrInputDocument>> batch,
+			Map<String, List<SolrInputDocument>> upcoming, Date now) {
+		long time = now.getTime();
+		Map<String, List<SolrInputDocument>> current = new LinkedHashMap<String, List<SolrInputDocument>>();
+		for (Entry<String, List<SolrInputDocument>> e : batch.entrySet()) {
+			SolrInputDocument active = null;
+			List<SolrInputDocument> later = new ArrayList<SolrInputDocument>();
+			for (SolrInputDocument doc : e.getValue()) {
+				Date from = (Date) doc.getFieldValue("active_from");
+				Date to = (Date) doc.getFieldValue("active_to");
+				if (from != null && from.getTime() > time) {
+					later.add(doc);
+				} else if ((to == null || to.getTime() > time)
+						&& (active == null || getTime(from) >= getTime((Date) active.getFieldValue("active_from")))) {
+					active = doc;
+				}
+			}
+			current.put(e.getKey(), (active != null) ? Collections.singletonList(active)
+					: Collections.<SolrInputDocument> emptyList());
+			upcoming.put(e.getKey(), later);
+		}
+		return current;
+	}
+
+	private static long getTime(Date date) {
+		return (date != null) ? date.getTime() : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Replaces the upcoming documents of the given products, an empty list
+	 * only cancels the pending ones.
+	 *
+	 * @param keyField
+	 *            field shared by all documents of a product
+	 */
+	public void schedule(String url, String keyField, Map<String, List<SolrInputDocument>> upcoming) {
+		for (Entry<String, List<SolrInputDocument>> e : upcoming.entrySet()) {
+			long v = version.incrementAndGet();
+			versions.put(getVersionKey(url, e.getKey()), v);
+			patches.remove(getVersionKey(url, e.getKey()));
+			activated.remove(getVersionKey(url, e.getKey()));
+			for (SolrInputDocument doc : e.getValue()) {
+				queue.add(new Activation(url, keyField, e.getKey(), v, doc));
+			}
+		}
+		if (!queue.isEmpty()) {
+			start();
+		}
+	}
+
+	public void cancel(String url, List<String> keys) {
+		for (String key : keys) {
+			versions.put(getVersionKey(url, key), version.incrementAndGet());
+			patches.remove(getVersionKey(url, key));
+			activated.remove(getVersionKey(url, key));
+		}
+	}
+
+	/**
+	 * Sets fields on the pending documents of the given products, e.g. stock
+	 * that changed after they were scheduled. Waits for an activation in
+	 * progress, so once it returns no activation writes the old values.
+	 */
+	public void patch(String url, Map<String, Map<String, Object>> fieldsByKey) {
+		synchronized (lock) {
+			for (Entry<String, Map<String, Object>> e : fieldsByKey.entrySet()) {
+				String versionKey = getVersionKey(url, e.getKey());
+				if (versions.containsKey(versionKey)) {
+					patches.merge(versionKey, new LinkedHashMap<String, Object>(e.getValue()), (a, b) -> {
+						Map<String, Object> merged = new LinkedHashMap<String, Object>(a);
+						merged.putAll(b);
+						return merged;
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops everything pending for the url, e.g. before it is rebuilt.
+	 */
+	public void cancel(String url) {
+		queue.removeIf(activation -> activation.url.equals(url));
+		versions.keySet().removeIf(key -> key.startsWith(url + "\t"));
+		patches.keySet().removeIf(key -> key.startsWith(url + "\t"));
+		activated.keySet().removeIf(key -> key.startsWith(url + "\t"));
+	}
+
+	/**
+	 * Hands the pending documents of one url over to another, e.g. from a
+	 * rebuilt collection to the alias it was swapped in under, so later runs
+	 * through the alias supersede them. Pending documents of toUrl are
+	 * dropped.
+	 */
+	public synchronized void move(String fromUrl, String toUrl) {
+		cancel(toUrl);
+		List<Activation> moved = new ArrayList<Activation>();
+		queue.removeIf(activation -> activation.url.equals(fromUrl) && moved.add(activation));
+		for (Activation activation : moved) {
+			Long v = versions.remove(getVersionKey(fromUrl, activation.key));
+			if (v != null) {
+				versions.put(getVersionKey(toUrl, activation.key), v);
+			}
+			Map<String, Object> patch = patches.remove(getVersionKey(fromUrl, activation.key));
+			if (patch != null) {
+				patches.put(getVersionKey(toUrl, activation.key), patch);
+			}
+			Long time = activated.remove(getVersionKey(fromUrl, activation.key));
+			if (time != null) {
+				activated.put(getVersionKey(toUrl, activation.key), time);
+			}
+			if (activation.isCurrent(toUrl)) {
+				queue.add(activation.move(toUrl));
+			}
+		}
+		versions.keySet().removeIf(key -> key.startsWith(fromUrl + "\t"));
+		patches.keySet().removeIf(key -> key.startsWith(fromUrl + "\t"));
+		activated.keySet().removeIf(key -> key.startsWith(fromUrl + "\t"));
+	}
+
+	public int getPending() {
+		return queue.size();
+	}
+
+	protected void start() {
+		if (worker == null) {
+			synchronized (this) {
+				if (worker == null) {
+					Thread t = new Thread(this::run, "price-activation");
+					t.setDaemon(true);
+					t.start();
+					worker = t;
+				}
+			}
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (worker != null) {
+			worker.interrupt();
+			worker = null;
+		}
+	}
+
+	private void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<Activation> due = new ArrayList<Activation>();
+				due.add(queue.take());
+				queue.drainTo(due);
+				activate(due);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void activate(List<Activation> due) {
+		synchronized (lock) {
+			write(due);
+		}
+	}
+
+	private void write(List<Activation> due) {
+		// the latest due document of a product wins
+		Map<String, Map<String, Activation>> byUrl = new LinkedHashMap<String, Map<String, Activation>>();
+		for (Activation activation : due) {
+			if (!activation.isCurrent() || activation.isOutdated()) {
+				continue;
+			}
+			Map<String, Activation> byKey = byUrl.computeIfAbsent(activation.url,
+					k -> new LinkedHashMap<String, Activation>());
+			Activation other = byKey.get(activation.key);
+			if (other == null || other.time <= activation.time) {
+				byKey.put(activation.key, activation);
+			}
+		}
+
+		for (Entry<String, Map<String, Activation>> e : byUrl.entrySet()) {
+			String url = e.getKey();
+			try {
+				UpdateRequest request = new UpdateRequest();
+				Map<String, Map<String, List<String>>> idsByKeyField = new LinkedHashMap<String, Map<String, List<String>>>();
+				for (Activation activation : e.getValue().values()) {
+					request.add(activation.getDocument());
+					idsByKeyField.computeIfAbsent(activation.keyField, k -> new LinkedHashMap<String, List<String>>())
+							.put(activation.key, Collections.singletonList((String) activation.doc.getFieldValue("id")));
+				}
+				for (Entry<String, Map<String, List<String>>> ids : idsByKeyField.entrySet()) {
+					for (String q : SolrQueryUtils.getReplaceQueries(ids.getKey(), "id", ids.getValue())) {
+						request.deleteByQuery(q);
+					}
+				}
+				commitPolicy.apply(request);
+
+				SolrServer solr = SolrServerCache.getServer(url);
+				solrWriter.process(url, solr, request);
+				for (Activation activation : e.getValue().values()) {
+					activated.put(getVersionKey(url, activation.key), activation.time);
+				}
+				commitPolicy.afterBatch(solr);
+				commitPolicy.afterRun(solr);
+				log.info(String.format("activated upcoming spans of %d products in %s", e.getValue().size(), url));
+			} catch (Exception ex) {
+				log.error(ExceptionUtils.getStackTrace(ex));
+				retry(url, e.getValue().values());
+			}
+		}
+	}
+
+	private void retry(String url, Collection<Activation> failed) {
+		long backoff = 0;
+		for (Activation activation : failed) {
+			Activation next = activation.retry();
+			backoff = Math.max(backoff, next.due - System.currentTimeMillis());
+			queue.add(next);
+		}
+		log.warn(String.format("activation of %d products in %s failed, retrying in %dms", failed.size(), url,
+				backoff));
+	}
+
+	private String getVersionKey(String url, String key) {
+		return url + "\t" + key;
+	}
+
+	public SolrWriter getSolrWriter() {
+		return solrWriter;
+	}
+
+	public void setSolrWriter(SolrWriter solrWriter) {
+		this.solrWriter = solrWriter;
+	}
+
+	public CommitPolicy getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	/**
+	 * @param commitPolicy
+	 *            commits of the activations, commitWithin 1s by default
+	 */
+	public void setCommitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+	}
+
+	public long getRetryBackoff() {
+		return retryBackoff;
+	}
+
+	/**
+	 * @param retryBackoff
+	 *            ms before the first retry of a failed activation, doubled for
+	 *            every further one, 1s by default
+	 */
+	public void setRetryBackoff(long retryBackoff) {
+		this.retryBackoff = retryBackoff;
+	}
+
+	public long getMaxRetryBackoff() {
+		return maxRetryBackoff;
+	}
+
+	/**
+	 * @param maxRetryBackoff
+	 *            upper bound of the retry backoff, 60s by default
+	 */
+	public void setMaxRetryBackoff(long maxRetryBackoff) {
+		this.maxRetryBackoff = maxRetryBackoff;
+	}
+
+	protected class Activation implements Delayed {
+		private final String url;
+		private final String keyField;
+		private final String key;
+		private final long version;
+		private final long time;
+		private final SolrInputDocument doc;
+		private final int attempts;
+		private final long due;
+
+		Activation(String url, String keyField, String key, long version, SolrInputDocument doc) {
+			this(url, keyField, key, version, doc, 0, ((Date) doc.getFieldValue("active_from")).getTime());
+		}
+
+		private Activation(String url, String keyField, String key, long version, SolrInputDocument doc,
+				int attempts, long due) {
+			this.url = url;
+			this.keyField = keyField;
+			this.key = key;
+			this.version = version;
+			this.time = ((Date) doc.getFieldValue("active_from")).getTime();
+			this.doc = doc;
+			this.attempts = attempts;
+			this.due = due;
+		}
+
+		Activation move(String url) {
+			return new Activation(url, keyField, key, version, doc, attempts, due);
+		}
+
+		/**
+		 * @return this activation again after the backoff of its attempt
+		 */
+		Activation retry() {
+			long backoff = Math.min(maxRetryBackoff, retryBackoff << Math.min(attempts, 20));
+			return new Activation(url, keyField, key, version, doc, attempts + 1,
+					System.currentTimeMillis() + backoff);
+		}
+
+		/**
+		 * @return true if a later span of the product was activated, e.g.
+		 *         while this one waited for a retry
+		 */
+		boolean isOutdated() {
+			Long last = activated.get(getVersionKey(url, key));
+			return last != null && last >= time;
+		}
+
+		/**
+		 * @return false if the product was indexed or cancelled since
+		 */
+		boolean isCurrent() {
+			return isCurrent(url);
+		}
+
+		/**
+		 * @return the scheduled document with the fields patched since
+		 */
+		SolrInputDocument getDocument() {
+			Map<String, Object> patch = patches.get(getVersionKey(url, key));
+			if (patch == null) {
+				return doc;
+			}
+			SolrInputDocument patched = doc.deepCopy();
+			for (Entry<String, Object> field : patch.entrySet()) {
+				patched.setField(field.getKey(), field.getValue());
+			}
+			return patched;
+		}
+
+		boolean isCurrent(String url) {
+			Long current = versions.get(getVersionKey(url, key));
+			return current != null && current == version;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(due, ((Activation) o).due);
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.bakerbeach.market.index.service;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import com.bakerbeach.market.index.utils.FieldNames;
+import com.bakerbeach.market.index.utils.PriceTimeline;
+import com.bakerbeach.market.inventory.api.model.InventoryStatus;
+
+/**
+ * Per product data resolved once and shared by all of its time span
+ * documents.
+ */
+public class ProductIndexData {
+	private InventoryStatus inventoryStatus;
+	private PriceTimeline prices;
+	private FieldNames fieldNames;
+	private String assetsJson;
+	private SolrInputDocument productDocument;
+
+	public InventoryStatus getInventoryStatus() {
+		return inventoryStatus;
+	}
+
+	public void setInventoryStatus(InventoryStatus inventoryStatus) {
+		this.inventoryStatus = inventoryStatus;
+	}
+
+	public PriceTimeline getPrices() {
+		return prices;
+	}
+
+	public void setPrices(PriceTimeline prices) {
+		this.prices = prices;
+	}
+
+	public FieldNames getFieldNames() {
+		return fieldNames;
+	}
+
+	public void setFieldNames(FieldNames fieldNames) {
+		this.fieldNames = fieldNames;
+	}
+
+	/**
+	 * @return assets serialized once per product, null if they could not be
+	 *         written
+	 */
+	public String getAssetsJson() {
+		return assetsJson;
+	}
+
+	public void setAssetsJson(String assetsJson) {
+		this.assetsJson = assetsJson;
+	}
+
+	/**
+	 * @return the span independent fields, built with the first span document
+	 *         and copied into every further one
+	 */
+	public SolrInputDocument getProductDocument() {
+		return productDocument;
+	}
+
+	public void setProductDocument(SolrInputDocument productDocument) {
+		this.productDocument = productDocument;
+	}
+
+}
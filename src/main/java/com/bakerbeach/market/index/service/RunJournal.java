@@ -0,0 +1,270 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the products solr acknowledged during a bulk run,
+ * one locked file per collection and run key. A run that dies or fails leaves
+ * its journal behind; a retry of it, identified by the same key, skips the
+ * products recorded up to the last checkpoint marker. Any other run starts a
+ * new journal. Checkpoints write the marker every checkpointInterval batches
+ * and, with fsync enabled, force the journal to disk.
+ */
+public class RunJournal {
+	protected static final Logger log = LoggerFactory.getLogger(RunJournal.class);
+
+	private static final String RUN = "#run\t";
+	private static final String CHECKPOINT = "#checkpoint";
+
+	private File directory;
+	private int checkpointInterval = 10;
+	private boolean fsync = true;
+	private long maxAge = 6 * 60 * 60 * 1000;
+
+	/**
+	 * Opens the journal of the collection and run, resuming it if it was left
+	 * by an earlier attempt that is not older than maxAge. Journals of the
+	 * collection older than maxAge are removed.
+	 *
+	 * @param runKey
+	 *            identity of the run, e.g. a fingerprint of its products and
+	 *            lastUpdate; never the same for two different runs
+	 * @throws IOException
+	 *             also if the journal is held by a run with the same key
+	 */
+	public Run open(String collection, long runKey) throws IOException {
+		Files.createDirectories(directory.toPath());
+		removeExpired(collection);
+		File file = getFile(collection, runKey);
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		FileLock lock = null;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// held by a run of this jvm
+		}
+		if (lock == null) {
+			channel.close();
+			throw new IOException(String.format("run journal %s is in use by another run", file));
+		}
+
+		Set<String> acknowledged = ConcurrentHashMap.newKeySet();
+		long length = 0;
+		try {
+			length = read(channel, runKey, acknowledged);
+		} catch (Exception e) {
+			log.warn(String.format("could not read run journal %s: %s", file, e.getMessage()));
+			acknowledged.clear();
+		}
+
+		// drops the records after the last checkpoint, appended to otherwise
+		channel.truncate(length);
+		channel.position(length);
+
+		boolean resume = length > 0;
+		if (resume) {
+			log.info(String.format("resuming run on %s, %d products already acknowledged", collection,
+					acknowledged.size()));
+		}
+		Run run = new Run(file, channel, acknowledged, resume);
+		if (!resume) {
+			run.writer.append(RUN).append(Long.toHexString(runKey)).append('\n');
+			run.checkpoint();
+		}
+		return run;
+	}
+
+	/**
+	 * Reads the codes up to the last checkpoint marker into acknowledged. A
+	 * trailing line without newline is an interrupted write and ignored.
+	 *
+	 * @return length in bytes of the journal up to the last checkpoint marker,
+	 *         0 if there is none or the journal belongs to another run
+	 */
+	static long read(FileChannel channel, long runKey, Set<String> acknowledged) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				break;
+			}
+		}
+		byte[] bytes = buffer.array();
+		int size = buffer.position();
+
+		String header = RUN + Long.toHexString(runKey);
+		List<String> pending = new ArrayList<String>();
+		long length = 0;
+		int start = 0;
+		for (int i = 0; i < size; i++) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+			String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+			if (start == 0 && !line.equals(header)) {
+				return 0;
+			}
+			start = i + 1;
+			if (line.equals(CHECKPOINT)) {
+				acknowledged.addAll(pending);
+				pending.clear();
+				length = start;
+			} else if (!line.isEmpty() && !line.startsWith("#")) {
+				pending.add(line);
+			}
+		}
+		return length;
+	}
+
+	private void removeExpired(String collection) {
+		Pattern name = Pattern.compile(Pattern.quote(getPrefix(collection)) + "\\.[0-9a-f]+\\.journal");
+		File[] files = directory.listFiles((dir, n) -> name.matcher(n).matches());
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (System.currentTimeMillis() - file.lastModified() > maxAge && !file.delete()) {
+				log.warn(String.format("could not remove expired run journal %s", file));
+			}
+		}
+	}
+
+	protected File getFile(String collection, long runKey) {
+		return new File(directory, getPrefix(collection) + "." + Long.toHexString(runKey) + ".journal");
+	}
+
+	private String getPrefix(String collection) {
+		return collection.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public boolean isFsync() {
+		return fsync;
+	}
+
+	/**
+	 * @param fsync
+	 *            force checkpoints to disk; without it a checkpoint survives a
+	 *            JVM crash but not an OS crash
+	 */
+	public void setFsync(boolean fsync) {
+		this.fsync = fsync;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public class Run {
+		private final File file;
+		private final Set<String> acknowledged;
+		private final boolean resumed;
+		private final FileChannel channel;
+		private final Writer writer;
+		private int batches = 0;
+
+		private Run(File file, FileChannel channel, Set<String> acknowledged, boolean resumed) {
+			this.file = file;
+			this.acknowledged = acknowledged;
+			this.resumed = resumed;
+			this.channel = channel;
+			this.writer = new BufferedWriter(
+					new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+		}
+
+		public boolean isAcknowledged(String code) {
+			return acknowledged.contains(code);
+		}
+
+		/**
+		 * Records the codes of a batch solr accepted.
+		 */
+		public synchronized void acknowledge(Collection<String> codes) throws IOException {
+			for (String code : codes) {
+				acknowledged.add(code);
+				writer.append(code).append('\n');
+			}
+			if (++batches % checkpointInterval == 0) {
+				checkpoint();
+			}
+		}
+
+		/**
+		 * Marks the codes recorded so far as the ones a retry may skip.
+		 */
+		public synchronized void checkpoint() throws IOException {
+			writer.append(CHECKPOINT).append('\n');
+			writer.flush();
+			if (fsync) {
+				channel.force(false);
+			}
+		}
+
+		/**
+		 * Keeps the journal for the next run to resume from and releases its
+		 * lock.
+		 */
+		public synchronized void close() throws IOException {
+			checkpoint();
+			writer.close();
+		}
+
+		/**
+		 * Ends the run successfully and removes the journal.
+		 */
+		public synchronized void complete() throws IOException {
+			writer.close();
+			Files.deleteIfExists(file.toPath());
+		}
+
+		public boolean isResumed() {
+			return resumed;
+		}
+
+		public int getAcknowledged() {
+			return acknowledged.size();
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CollectionAdmin} on the solr collections API. Aliases are read from
+ * CLUSTERSTATUS, so solr 4.8 or later is required; the version of a server is
+ * checked on its first alias lookup, before a rebuild writes anything. Older
+ * servers, including those without a system info handler, are handed to the
+ * fallback, a {@link LocalCollectionAdmin} by default.
+ */
+public class SolrCollectionAdmin implements CollectionAdmin {
+	protected static final Logger log = LoggerFactory.getLogger(SolrCollectionAdmin.class);
+
+	private static final String PATH = "/admin/collections";
+	private static final String INFO_PATH = "/admin/info/system";
+
+	private final ConcurrentMap<String, Boolean> supported = new ConcurrentHashMap<String, Boolean>();
+	private CollectionAdmin fallback = new LocalCollectionAdmin();
+
+	@Override
+	public String getAliasTarget(String baseUrl, String alias) throws Exception {
+		if (!isSupported(baseUrl)) {
+			return fallback.getAliasTarget(baseUrl, alias);
+		}
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set("action", "CLUSTERSTATUS");
+
+		NamedList<Object> response = request(baseUrl, PATH, params);
+		Object cluster = response.get("cluster");
+		Object aliases = get(cluster, "aliases");
+		Object target = get(aliases, alias);
+
+		return (target != null) ? target.toString() : null;
+	}
+
+	@Override
+	public void createAlias(String baseUrl, String alias, String collection) throws Exception {
+		if (!isSupported(baseUrl)) {
+			fallback.createAlias(baseUrl, alias, collection);
+			return;
+		}
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set("action", "CREATEALIAS");
+		params.set("name", alias);
+		params.set("collections", collection);
+
+		request(baseUrl, PATH, params);
+		log.info(String.format("alias %s now points to %s", alias, collection));
+	}
+
+	/**
+	 * @return true if the server runs solr 4.8 or later, checked once per
+	 *         base url
+	 * @throws Exception
+	 *             if the server cannot be reached, nothing is remembered then
+	 */
+	protected boolean isSupported(String baseUrl) throws Exception {
+		Boolean atLeast = supported.get(baseUrl);
+		if (atLeast == null) {
+			String version = getVersion(baseUrl);
+			atLeast = isAtLeast(version, 4, 8);
+			if (!atLeast) {
+				log.warn(String.format("solr %s at %s has no CLUSTERSTATUS, aliases are kept by %s", version,
+						baseUrl, fallback.getClass().getSimpleName()));
+			}
+			supported.put(baseUrl, atLeast);
+		}
+		return atLeast;
+	}
+
+	/**
+	 * @return the solr-spec-version of the server, null if it does not tell
+	 */
+	private String getVersion(String baseUrl) throws Exception {
+		try {
+			NamedList<Object> response = request(baseUrl, INFO_PATH, new ModifiableSolrParams());
+			Object version = get(response.get("lucene"), "solr-spec-version");
+			return (version != null) ? version.toString() : null;
+		} catch (SolrException e) {
+			// no system info handler on the root before solr 4.2
+			log.warn(String.format("could not read the solr version of %s: %s", baseUrl, e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the version, e.g. 4.10.3 or 4.0.0.2012.10.06.03.04.33,
+	 *         is at least major.minor; false if it cannot be parsed
+	 */
+	static boolean isAtLeast(String version, int major, int minor) {
+		if (version == null) {
+			return false;
+		}
+		String[] parts = version.trim().split("\\.");
+		try {
+			int v = Integer.parseInt(parts[0]);
+			int m = (parts.length > 1) ? Integer.parseInt(parts[1]) : 0;
+			return v > major || (v == major && m >= minor);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	public CollectionAdmin getFallback() {
+		return fallback;
+	}
+
+	/**
+	 * @param fallback
+	 *            keeps the aliases of servers older than solr 4.8
+	 */
+	public void setFallback(CollectionAdmin fallback) {
+		this.fallback = fallback;
+	}
+
+	private NamedList<Object> request(String baseUrl, String path, ModifiableSolrParams params) throws Exception {
+		SolrServer solr = SolrServerRegistry.getInstance().getServer(baseUrl);
+		QueryRequest request = new QueryRequest(params);
+		request.setPath(path);
+
+		return solr.request(request);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object get(Object container, String key) {
+		if (container instanceof NamedList) {
+			return ((NamedList<Object>) container).get(key);
+		} else if (container instanceof Map) {
+			return ((Map<String, Object>) container).get(key);
+		}
+		return null;
+	}
+
+}
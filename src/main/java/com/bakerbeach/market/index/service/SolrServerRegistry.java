@@ -0,0 +1,232 @@
+package com.bakerbeach.market.index.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread safe registry of solr clients sharing one pooled http client. Backs
+ * {@link SolrServerCache} and {@link SolrServerFactory}; configure the shared
+ * instance as a spring bean with factory-method="getInstance" and
+ * destroy-method="shutdown".
+ */
+public class SolrServerRegistry {
+	protected static final Logger log = LoggerFactory.getLogger(SolrServerRegistry.class);
+
+	private static final SolrServerRegistry instance = new SolrServerRegistry();
+
+	private final ConcurrentMap<String, SolrServer> servers = new ConcurrentHashMap<String, SolrServer>();
+	private final ConcurrentMap<String, StreamingSolrServer> streamingServers = new ConcurrentHashMap<String, StreamingSolrServer>();
+
+	private int maxTotalConnections = 128;
+	private int maxConnectionsPerRoute = 32;
+	private long keepAlive = 30000;
+	private int connectionTimeout = 5000;
+	private int soTimeout = 60000;
+	private boolean binaryRequests = true;
+	private int streamingQueueSize = 64;
+	private int streamingThreads = 4;
+
+	private volatile ThreadSafeClientConnManager connectionManager;
+	private volatile HttpClient httpClient;
+
+	public static SolrServerRegistry getInstance() {
+		return instance;
+	}
+
+	public SolrServer getServer(String url) {
+		if (url == null) {
+			throw new IllegalArgumentException("missing solr url");
+		}
+		SolrServer server = servers.get(url);
+		if (server == null) {
+			server = servers.computeIfAbsent(url, this::createServer);
+		}
+		return server;
+	}
+
+	/**
+	 * @return the queueing update client of the url, for bulk runs; queries
+	 *         should go through {@link #getServer(String)}
+	 */
+	public StreamingSolrServer getStreamingServer(String url) {
+		if (url == null) {
+			throw new IllegalArgumentException("missing solr url");
+		}
+		StreamingSolrServer server = streamingServers.get(url);
+		if (server == null) {
+			server = streamingServers.computeIfAbsent(url, this::createStreamingServer);
+		}
+		return server;
+	}
+
+	public SolrServer getServer(String url, boolean streaming) {
+		return streaming ? getStreamingServer(url) : getServer(url);
+	}
+
+	protected SolrServer createServer(String url) {
+		HttpSolrServer server = new HttpSolrServer(url, getHttpClient());
+		server.setConnectionTimeout(connectionTimeout);
+		server.setSoTimeout(soTimeout);
+		if (binaryRequests) {
+			server.setRequestWriter(new BinaryRequestWriter());
+		}
+		log.info(String.format("created solr client for %s", url));
+
+		return server;
+	}
+
+	protected StreamingSolrServer createStreamingServer(String url) {
+		StreamingSolrServer server = new StreamingSolrServer(url, getHttpClient(), streamingQueueSize,
+				streamingThreads);
+		server.setConnectionTimeout(connectionTimeout);
+		server.setSoTimeout(soTimeout);
+		// ConcurrentUpdateSolrServer of solrj 4.0 writes its queue as xml and has
+		// no request writer, javabin streaming needs solrj 4.1 or later
+		log.info(String.format("created streaming solr client for %s with %d threads", url, streamingThreads));
+
+		return server;
+	}
+
+	protected HttpClient getHttpClient() {
+		if (httpClient == null) {
+			synchronized (this) {
+				if (httpClient == null) {
+					ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager();
+					cm.setMaxTotal(maxTotalConnections);
+					cm.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+					DefaultHttpClient client = new DefaultHttpClient(cm);
+					client.setKeepAliveStrategy((response, context) -> keepAlive);
+
+					connectionManager = cm;
+					httpClient = client;
+				}
+			}
+		}
+		return httpClient;
+	}
+
+	public synchronized void shutdown() {
+		for (SolrServer server : servers.values()) {
+			try {
+				server.shutdown();
+			} catch (Exception e) {
+				log.warn(String.format("error shutting down solr client: %s", e.getMessage()));
+			}
+		}
+		servers.clear();
+		for (StreamingSolrServer server : streamingServers.values()) {
+			try {
+				server.blockUntilFinished();
+				server.shutdown();
+			} catch (Exception e) {
+				log.warn(String.format("error shutting down solr client: %s", e.getMessage()));
+			}
+		}
+		streamingServers.clear();
+
+		if (connectionManager != null) {
+			connectionManager.shutdown();
+		}
+		connectionManager = null;
+		httpClient = null;
+	}
+
+	public int getServerCount() {
+		return servers.size() + streamingServers.size();
+	}
+
+	public int getConnectionsInPool() {
+		ThreadSafeClientConnManager cm = connectionManager;
+		return (cm != null) ? cm.getConnectionsInPool() : 0;
+	}
+
+	/**
+	 * @return open connections, leased and idle, per maxTotalConnections; the
+	 *         connection manager of httpclient 4.1 does not count leased ones
+	 *         apart, so this is how full the pool is, not how busy
+	 */
+	public double getPoolFillRatio() {
+		return (maxTotalConnections > 0) ? (double) getConnectionsInPool() / maxTotalConnections : 0;
+	}
+
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(int connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public boolean isBinaryRequests() {
+		return binaryRequests;
+	}
+
+	/**
+	 * @param binaryRequests
+	 *            send updates of the plain clients as javabin instead of xml,
+	 *            needs the binary update handler (default in solr 4);
+	 *            streaming clients always send xml with solrj 4.0
+	 */
+	public void setBinaryRequests(boolean binaryRequests) {
+		this.binaryRequests = binaryRequests;
+	}
+
+	public int getStreamingQueueSize() {
+		return streamingQueueSize;
+	}
+
+	public void setStreamingQueueSize(int streamingQueueSize) {
+		this.streamingQueueSize = streamingQueueSize;
+	}
+
+	public int getStreamingThreads() {
+		return streamingThreads;
+	}
+
+	public void setStreamingThreads(int streamingThreads) {
+		this.streamingThreads = streamingThreads;
+	}
+
+	public int getSoTimeout() {
+		return soTimeout;
+	}
+
+	public void setSoTimeout(int soTimeout) {
+		this.soTimeout = soTimeout;
+	}
+
+}
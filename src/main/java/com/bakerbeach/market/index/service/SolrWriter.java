@@ -0,0 +1,171 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends update requests with bounded retries and exponential backoff behind a
+ * circuit breaker per solr url. Requests that still fail, or are refused by an
+ * open circuit, go to the {@link DeadLetterSpool} if one is configured, so a
+ * short solr outage does not lose documents.
+ * <p>
+ * Requests to a {@link StreamingSolrServer} return once queued, so only
+ * queueing goes through here: failures while streaming are neither retried
+ * nor spooled but reported by {@link StreamingSolrServer#flush()}.
+ */
+public class SolrWriter {
+	protected static final Logger log = LoggerFactory.getLogger(SolrWriter.class);
+
+	private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private int maxRetries = 3;
+	private long initialBackoff = 200;
+	private long maxBackoff = 10000;
+	private int failureThreshold = 5;
+	private long openMillis = 30000;
+	private DeadLetterSpool deadLetterSpool;
+
+	public void process(String url, SolrServer solr, UpdateRequest request) throws Exception {
+		CircuitBreaker breaker = getCircuitBreaker(url);
+		// at least one attempt, whatever maxRetries is set to
+		int retries = Math.max(maxRetries, 0);
+		Exception last = null;
+		for (int attempt = 0; attempt <= retries; attempt++) {
+			if (!breaker.allowRequest()) {
+				last = new IOException(String.format("circuit open for %s", url));
+				break;
+			}
+			try {
+				request.process(solr);
+				breaker.success();
+				if (deadLetterSpool != null) {
+					try {
+						deadLetterSpool.written(url, request);
+					} catch (Exception e) {
+						log.error(ExceptionUtils.getStackTrace(e));
+					}
+				}
+				return;
+			} catch (Exception e) {
+				breaker.failure();
+				last = e;
+				if (!isRetryable(e) || attempt == retries) {
+					break;
+				}
+				long backoff = getBackoff(attempt);
+				log.warn(String.format("update of %s failed (attempt %d), retrying in %dms: %s", url, attempt + 1,
+						backoff, e.getMessage()));
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		if (deadLetterSpool != null) {
+			try {
+				deadLetterSpool.append(url, request, last);
+			} catch (Exception e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * Sends the spooled requests again.
+	 *
+	 * @return number of requests written
+	 */
+	public int replay() throws IOException {
+		return (deadLetterSpool != null) ? deadLetterSpool.replay(this) : 0;
+	}
+
+	/**
+	 * @return false for requests solr rejected as invalid, they would fail
+	 *         again
+	 */
+	protected boolean isRetryable(Exception e) {
+		if (e instanceof SolrException) {
+			int code = ((SolrException) e).code();
+			return code < 400 || code >= 500;
+		}
+		return true;
+	}
+
+	protected long getBackoff(int attempt) {
+		return Math.min(maxBackoff, initialBackoff << Math.min(attempt, 20));
+	}
+
+	public CircuitBreaker getCircuitBreaker(String url) {
+		CircuitBreaker breaker = breakers.get(url);
+		if (breaker == null) {
+			breaker = breakers.computeIfAbsent(url, k -> new CircuitBreaker(failureThreshold, openMillis));
+		}
+		return breaker;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param maxRetries
+	 *            attempts after the first, 3 by default; negative values
+	 *            count as 0
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public long getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	public void setInitialBackoff(long initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	public long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	public void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public DeadLetterSpool getDeadLetterSpool() {
+		return deadLetterSpool;
+	}
+
+	public void setDeadLetterSpool(DeadLetterSpool deadLetterSpool) {
+		this.deadLetterSpool = deadLetterSpool;
+	}
+
+}
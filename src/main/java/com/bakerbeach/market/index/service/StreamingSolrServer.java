@@ -0,0 +1,61 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.client.HttpClient;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queueing update client: update requests return at once and runner threads
+ * stream them to solr. Errors happen asynchronously, so they are counted here
+ * and surfaced by {@link #flush()} at the end of a run. The failed requests
+ * are not known at that point, so streamed updates are not retried or spooled
+ * by the {@link SolrWriter}. Instead index runs that fail to flush forget
+ * their delta fingerprints, so the next delta run sends every product again,
+ * and rebuilds are not swapped in.
+ */
+public class StreamingSolrServer extends ConcurrentUpdateSolrServer {
+	private static final long serialVersionUID = 1L;
+
+	protected static final Logger log = LoggerFactory.getLogger(StreamingSolrServer.class);
+
+	private final String url;
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicReference<Throwable> lastError = new AtomicReference<Throwable>();
+
+	public StreamingSolrServer(String url, HttpClient client, int queueSize, int threads) {
+		super(url, client, queueSize, threads);
+		this.url = url;
+	}
+
+	@Override
+	public void handleError(Throwable ex) {
+		errors.incrementAndGet();
+		lastError.set(ex);
+		log.error(String.format("streaming update to %s failed: %s", url, ex.getMessage()));
+	}
+
+	/**
+	 * Waits until all queued requests are sent.
+	 *
+	 * @throws IOException
+	 *             if any request failed since the last flush
+	 */
+	public void flush() throws IOException {
+		blockUntilFinished();
+		long failed = errors.getAndSet(0);
+		Throwable cause = lastError.getAndSet(null);
+		if (failed > 0) {
+			throw new IOException(String.format("%d streaming updates to %s failed", failed, url), cause);
+		}
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+}
@@ -0,0 +1,408 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.translation.api.service.TranslationService;
+
+/**
+ * Size bounded LRU cache with TTL in front of the {@link TranslationService}.
+ * Brand, category, color and size codes repeat across thousands of products,
+ * so most lookups of an indexing run can be answered without a backend call.
+ * Concurrent misses on the same key share one backend lookup, prefetches
+ * load the missing keys of a batch with bounded parallelism. Keys found in the
+ * optional {@link TranslationDictionary} are answered from it and not cached
+ * on heap.
+ */
+public class TranslationCache {
+	protected static final Logger log = LoggerFactory.getLogger(TranslationCache.class);
+
+	private TranslationService translationService;
+	private TranslationDictionary dictionary;
+	private IndexMetrics metrics;
+	private int maxSize = 100000;
+	private long ttl = 600000;
+	private int prefetchParallelism = 8;
+	private Executor prefetchExecutor;
+
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private final ConcurrentMap<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<Key, CompletableFuture<String>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dictionaryHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public TranslationCache() {
+	}
+
+	public TranslationCache(TranslationService translationService) {
+		this.translationService = translationService;
+	}
+
+	public String getMessage(String tag, String type, String code, Locale locale) {
+		return getMessage(new Key(tag, type, code, locale));
+	}
+
+	public String getMessage(Key key) {
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expires > now) {
+				hits.incrementAndGet();
+				return entry.message;
+			}
+		}
+		if (dictionary != null) {
+			String message = dictionary.get(key);
+			if (message != TranslationDictionary.MISSING) {
+				dictionaryHits.incrementAndGet();
+				return message;
+			}
+		}
+		misses.incrementAndGet();
+
+		return resolve(key, now);
+	}
+
+	/**
+	 * Loads the key outside the cache lock; callers missing the same key
+	 * meanwhile wait for this lookup instead of starting their own.
+	 */
+	private String resolve(Key key, long now) {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		CompletableFuture<String> pending = inFlight.putIfAbsent(key, future);
+		if (pending != null) {
+			coalesced.incrementAndGet();
+			try {
+				return pending.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+			}
+		}
+
+		try {
+			String message = load(key);
+			put(key, message, now);
+			future.complete(message);
+			return message;
+		} catch (Throwable e) {
+			// errors too, the waiting callers would block forever otherwise
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Loads all given keys that are not cached yet, e.g. the codes of a whole
+	 * product batch before its documents are built.
+	 */
+	public void prefetch(Collection<Key> keys) {
+		long now = System.currentTimeMillis();
+		Queue<Key> missing = new ConcurrentLinkedQueue<Key>();
+		for (Key key : keys) {
+			if (!contains(key, now) && (dictionary == null || dictionary.get(key) == TranslationDictionary.MISSING)) {
+				missing.add(key);
+			}
+		}
+		int loaded = missing.size();
+		AtomicInteger failed = new AtomicInteger();
+
+		int workers = Math.min(prefetchParallelism, missing.size());
+		if (workers <= 1) {
+			drain(missing, now, failed);
+		} else {
+			Executor executor = (prefetchExecutor != null) ? prefetchExecutor : IndexExecutors.getDefault();
+			List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(workers);
+			for (int i = 0; i < workers; i++) {
+				futures.add(CompletableFuture.runAsync(() -> drain(missing, now, failed), executor));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[workers])).join();
+		}
+		log.debug(String.format("prefetched %d of %d translations, %d failed", loaded - failed.get(), keys.size(),
+				failed.get()));
+	}
+
+	/**
+	 * Loads the keys from the translation service and writes them to the
+	 * {@link TranslationDictionary}, replacing labels it already has.
+	 */
+	public void updateDictionary(Collection<Key> keys) throws IOException {
+		if (dictionary == null) {
+			throw new IllegalStateException("no translation dictionary configured");
+		}
+		long now = System.currentTimeMillis();
+		Map<Key, String> labels = new LinkedHashMap<Key, String>();
+		for (Key key : keys) {
+			labels.put(key, resolve(key, now));
+		}
+		dictionary.update(labels);
+	}
+
+	private void drain(Queue<Key> keys, long now, AtomicInteger failed) {
+		for (Key key = keys.poll(); key != null; key = keys.poll()) {
+			try {
+				resolve(key, now);
+			} catch (RuntimeException e) {
+				// the document build asks again and reports the failure
+				failed.incrementAndGet();
+			}
+		}
+	}
+
+	private String load(Key key) {
+		long start = System.nanoTime();
+		try {
+			return translationService.getMessage(key.tag, key.type, key.code, null, key.code, key.locale);
+		} catch (RuntimeException e) {
+			if (metrics != null) {
+				metrics.failed(IndexMetrics.Stage.TRANSLATION, e);
+			}
+			throw e;
+		} finally {
+			if (metrics != null) {
+				metrics.record(IndexMetrics.Stage.TRANSLATION, start);
+			}
+		}
+	}
+
+	private boolean contains(Key key, long now) {
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			return entry != null && entry.expires > now;
+		}
+	}
+
+	private void put(Key key, String message, long now) {
+		synchronized (entries) {
+			entries.put(key, new Entry(message, now + ttl));
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getDictionaryHits() {
+		return dictionaryHits.get();
+	}
+
+	/**
+	 * @return misses answered by a lookup already in flight
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public double getHitRate() {
+		long total = hits.get() + misses.get();
+		return (total > 0) ? (double) hits.get() / total : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size=%d hits=%d dictionaryHits=%d misses=%d coalesced=%d evictions=%d hitRate=%.3f",
+				size(), getHits(), getDictionaryHits(), getMisses(), getCoalesced(), getEvictions(), getHitRate());
+	}
+
+	public TranslationService getTranslationService() {
+		return translationService;
+	}
+
+	public void setTranslationService(TranslationService translationService) {
+		this.translationService = translationService;
+	}
+
+	public TranslationDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public void setDictionary(TranslationDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	public IndexMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param metrics
+	 *            records the latency of the backend lookups, cache hits are
+	 *            not timed
+	 */
+	public void setMetrics(IndexMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public int getPrefetchParallelism() {
+		return prefetchParallelism;
+	}
+
+	/**
+	 * @param prefetchParallelism
+	 *            concurrent backend lookups of a prefetch, 8 by default
+	 */
+	public void setPrefetchParallelism(int prefetchParallelism) {
+		this.prefetchParallelism = prefetchParallelism;
+	}
+
+	public Executor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	/**
+	 * @param prefetchExecutor
+	 *            runs the prefetch lookups, {@link IndexExecutors#getDefault()}
+	 *            if not set
+	 */
+	public void setPrefetchExecutor(Executor prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	private static class Entry {
+		private final String message;
+		private final long expires;
+
+		Entry(String message, long expires) {
+			this.message = message;
+			this.expires = expires;
+		}
+	}
+
+	public static class Key {
+		private final String tag;
+		private final String type;
+		private final String code;
+		private final Locale locale;
+		private final int hash;
+
+		public Key(String tag, String type, String code, Locale locale) {
+			this.tag = tag;
+			this.type = type;
+			this.code = code;
+			this.locale = locale;
+
+			int h = (tag != null) ? tag.hashCode() : 0;
+			h = 31 * h + ((type != null) ? type.hashCode() : 0);
+			h = 31 * h + ((code != null) ? code.hashCode() : 0);
+			h = 31 * h + ((locale != null) ? locale.hashCode() : 0);
+			this.hash = h;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public Locale getLocale() {
+			return locale;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && eq(tag, other.tag) && eq(type, other.type) && eq(code, other.code)
+					&& eq(locale, other.locale);
+		}
+
+		private static boolean eq(Object a, Object b) {
+			return (a == null) ? b == null : a.equals(b);
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(String.valueOf(tag)).append("/").append(type).append("/").append(code)
+					.append("/").append(locale).toString();
+		}
+	}
+
+}
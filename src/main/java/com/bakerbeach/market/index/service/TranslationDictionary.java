@@ -0,0 +1,328 @@
+package com.bakerbeach.market.index.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only translation labels in a memory mapped file, shared by all
+ * indexer JVMs of a host through the page cache. Lookups hash the key and
+ * compare it against the mapped bytes, only the label found is decoded.
+ * <p>
+ * Writers build a new file next to the current one and move it over it, so
+ * readers always see a complete dictionary; they pick up the new file on the
+ * first lookup after refreshInterval.
+ * <p>
+ * Layout: magic, version, entry count, slot count, open addressing slots of
+ * (64 bit key hash, entry offset + 1) and the entries as (key length, key,
+ * label length or -1, label), all UTF-8.
+ */
+public class TranslationDictionary {
+	protected static final Logger log = LoggerFactory.getLogger(TranslationDictionary.class);
+
+	private static final int MAGIC = 0x54444943;
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final int SLOT = 12;
+	private static final char SEPARATOR = '\u001f';
+	private static final String NULL = "\u0000";
+
+	/**
+	 * Returned for keys that are not in the dictionary, null is a valid
+	 * label.
+	 */
+	public static final String MISSING = new String("\u0000missing");
+
+	private File file;
+	private long refreshInterval = 60000;
+
+	private volatile Table table;
+	private volatile long nextCheck;
+
+	public TranslationDictionary() {
+	}
+
+	public TranslationDictionary(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the label or {@link #MISSING}
+	 */
+	public String get(TranslationCache.Key key) {
+		Table t = getTable();
+		return (t != null) ? t.get(getKeyBytes(key)) : MISSING;
+	}
+
+	public int size() {
+		Table t = getTable();
+		return (t != null) ? t.count : 0;
+	}
+
+	private Table getTable() {
+		long now = System.currentTimeMillis();
+		if (now >= nextCheck) {
+			synchronized (this) {
+				if (now >= nextCheck) {
+					refresh();
+					nextCheck = now + refreshInterval;
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Maps the file again if it was replaced since it was opened.
+	 */
+	public synchronized void refresh() {
+		try {
+			if (!file.exists()) {
+				table = null;
+				return;
+			}
+			Table current = table;
+			if (current != null && current.isCurrent(file)) {
+				return;
+			}
+			table = open(file);
+			log.info(String.format("opened translation dictionary %s with %d labels", file, table.count));
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	/**
+	 * Adds the labels to the dictionary file and swaps it in. Writers of all
+	 * JVMs are serialized through a lock file, so none loses the labels of
+	 * another.
+	 */
+	public void update(Map<TranslationCache.Key, String> labels) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		Files.createDirectories(dir.toPath());
+		try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, file.getName() + ".lock"), "rw");
+				FileLock lock = lockFile.getChannel().lock()) {
+			Map<String, String> entries = new LinkedHashMap<String, String>();
+			if (file.exists()) {
+				open(file).readAll(entries);
+			}
+			for (Map.Entry<TranslationCache.Key, String> e : labels.entrySet()) {
+				entries.put(new String(getKeyBytes(e.getKey()), StandardCharsets.UTF_8), e.getValue());
+			}
+
+			File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+			try {
+				write(tmp, entries);
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tmp.toPath());
+			}
+			log.info(String.format("wrote translation dictionary %s with %d labels", file, entries.size()));
+		}
+		refresh();
+	}
+
+	private static void write(File target, Map<String, String> entries) throws IOException {
+		int slots = Integer.highestOneBit(Math.max(entries.size(), 1) * 2 - 1) << 1;
+		long[] hashes = new long[slots];
+		int[] offsets = new int[slots];
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(target), 1 << 16))) {
+			// entries go behind the slots, which are written once all offsets are known
+			out.write(new byte[HEADER + slots * SLOT]);
+			int offset = 0;
+			for (Map.Entry<String, String> e : entries.entrySet()) {
+				byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+				long hash = hash(key, 0, key.length);
+				int slot = getSlot(hash, slots);
+				while (offsets[slot] != 0) {
+					slot = (slot + 1) & (slots - 1);
+				}
+				hashes[slot] = hash;
+				offsets[slot] = offset + 1;
+
+				out.writeInt(key.length);
+				out.write(key);
+				offset += 4 + key.length;
+				if (e.getValue() == null) {
+					out.writeInt(-1);
+					offset += 4;
+				} else {
+					byte[] label = e.getValue().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(label.length);
+					out.write(label);
+					offset += 4 + label.length;
+				}
+			}
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER + slots * SLOT);
+			header.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(slots);
+			for (int i = 0; i < slots; i++) {
+				header.putLong(hashes[i]).putInt(offsets[i]);
+			}
+			raf.write(header.array());
+			raf.getFD().sync();
+		}
+	}
+
+	private static Table open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			Object fileKey = getFileKey(file);
+			long lastModified = file.lastModified();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException(String.format("%s is not a translation dictionary", file));
+			}
+			return new Table(buffer, fileKey, lastModified);
+		}
+	}
+
+	/**
+	 * @return the inode on file systems that have them, a swapped file gets
+	 *         a new one
+	 */
+	private static Object getFileKey(File file) throws IOException {
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+	}
+
+	private static byte[] getKeyBytes(TranslationCache.Key key) {
+		return new StringBuilder(valueOf(key.getTag())).append(SEPARATOR).append(valueOf(key.getType()))
+				.append(SEPARATOR).append(valueOf(key.getCode())).append(SEPARATOR)
+				.append(valueOf(key.getLocale())).toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String valueOf(Object value) {
+		return (value != null) ? value.toString() : NULL;
+	}
+
+	private static long hash(byte[] bytes, int offset, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++) {
+			hash ^= bytes[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static int getSlot(long hash, int slots) {
+		return (int) (hash ^ (hash >>> 32)) & (slots - 1);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	public long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * @param refreshInterval
+	 *            ms between checks for a replaced file, 60s by default
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	private static class Table {
+		private final ByteBuffer buffer;
+		private final Object fileKey;
+		private final long lastModified;
+		private final int count;
+		private final int slots;
+		private final int data;
+
+		Table(ByteBuffer buffer, Object fileKey, long lastModified) {
+			this.buffer = buffer;
+			this.fileKey = fileKey;
+			this.lastModified = lastModified;
+			this.count = buffer.getInt(8);
+			this.slots = buffer.getInt(12);
+			this.data = HEADER + slots * SLOT;
+		}
+
+		boolean isCurrent(File file) throws IOException {
+			Object key = getFileKey(file);
+			return (key != null) ? key.equals(fileKey) : lastModified == file.lastModified();
+		}
+
+		String get(byte[] key) {
+			long hash = hash(key, 0, key.length);
+			for (int slot = getSlot(hash, slots);; slot = (slot + 1) & (slots - 1)) {
+				int pos = HEADER + slot * SLOT;
+				int offset = buffer.getInt(pos + 8);
+				if (offset == 0) {
+					return MISSING;
+				}
+				if (buffer.getLong(pos) == hash && matches(data + offset - 1, key)) {
+					return getLabel(data + offset - 1 + 4 + key.length);
+				}
+			}
+		}
+
+		private boolean matches(int pos, byte[] key) {
+			if (buffer.getInt(pos) != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (buffer.get(pos + 4 + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String getLabel(int pos) {
+			int length = buffer.getInt(pos);
+			if (length < 0) {
+				return null;
+			}
+			byte[] label = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			view.position(pos + 4);
+			view.get(label);
+			return new String(label, StandardCharsets.UTF_8);
+		}
+
+		void readAll(Map<String, String> entries) {
+			int pos = data;
+			for (int i = 0; i < count; i++) {
+				int keyLength = buffer.getInt(pos);
+				byte[] key = new byte[keyLength];
+				ByteBuffer view = buffer.duplicate();
+				view.position(pos + 4);
+				view.get(key);
+				pos += 4 + keyLength;
+				entries.put(new String(key, StandardCharsets.UTF_8), getLabel(pos));
+				int labelLength = buffer.getInt(pos);
+				pos += 4 + Math.max(labelLength, 0);
+			}
+		}
+	}
+
+}
@@ -1,33 +1,55 @@
 package com.bakerbeach.market.index.service;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Currency;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.common.SolrInputDocument;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.bakerbeach.market.index.model.CommitPolicy;
+import com.bakerbeach.market.index.model.DeltaIndexState;
 import com.bakerbeach.market.index.model.IndexContext;
+import com.bakerbeach.market.index.model.IndexContextImpl;
+import com.bakerbeach.market.index.model.IndexReport;
+import com.bakerbeach.market.index.utils.FieldNames;
+import com.bakerbeach.market.index.utils.FingerprintUtils;
+import com.bakerbeach.market.index.utils.JsonUtils;
+import com.bakerbeach.market.index.utils.PriceTimeline;
+import com.bakerbeach.market.index.utils.ProductSnapshot;
+import com.bakerbeach.market.index.utils.ProductSnapshot.Row;
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner;
+import com.bakerbeach.market.index.utils.TimeSpanPlanner.TimeSpan;
 import com.bakerbeach.market.inventory.api.model.InventoryStatus;
 import com.bakerbeach.market.inventory.api.service.InventoryService;
 import com.bakerbeach.market.translation.api.service.TranslationService;
-import com.bakerbeach.market.xcatalog.model.Asset;
 import com.bakerbeach.market.xcatalog.model.Price;
 import com.bakerbeach.market.xcatalog.model.Product;
 import com.bakerbeach.market.xcatalog.model.Product.Status;
@@ -41,59 +63,739 @@ public class XIndexServiceImpl implements XIndexService {
 	@Autowired(required = false)
 	private InventoryService inventoryService;
 
+	@Autowired(required = false)
+	private volatile TranslationCache translationCache;
+	private TranslationDictionary translationDictionary;
+
+	@Autowired(required = false)
+	private volatile InventoryLoader inventoryLoader;
+
+	private static final Set<String> FINGERPRINT_IGNORED_FIELDS = Collections.singleton("last_update");
+
+	private DeltaIndexStore deltaIndexStore;
+	private RunJournal runJournal;
+	private volatile IndexMetrics metrics;
+	private IndexMetrics registeredMetrics;
+	private String metricsName;
+	private Executor asyncExecutor;
+	private CommitPolicy commitPolicy = CommitPolicy.getDefault();
+	private SolrWriter solrWriter = new SolrWriter();
+	private TimeSpanPlanner timeSpanPlanner = new TimeSpanPlanner();
+	private PriceActivationScheduler priceActivationScheduler;
+
+	private CollectionAdmin collectionAdmin = new SolrCollectionAdmin();
+	private boolean optimizeOnRebuild = false;
+	private int maxRebuildFailures = 0;
+
+	private int indexWorkers = Runtime.getRuntime().availableProcessors();
+	private int indexQueueCapacity = 1000;
+	private int indexBatchSize = 500;
+
 	@Override
 	public void index(List<Product> products, Status status, Date lastUpdate, IndexContext context) {
-		for (Product product : products) {
-			index(product, status, lastUpdate, context);
+		bulkIndex(products, status, lastUpdate, context);
+	}
+
+	public IndexReport bulkIndex(List<Product> products, Status status, Date lastUpdate, IndexContext context) {
+		return index(products, status, lastUpdate, context, false, new IndexReport());
+	}
+
+	/**
+	 * Runs {@link #bulkIndex(List, Status, Date, IndexContext)} on the async
+	 * executor. Cancelling the future stops the run after the batches already
+	 * built are written.
+	 */
+	public CompletableFuture<IndexReport> bulkIndexAsync(List<Product> products, Status status, Date lastUpdate,
+			IndexContext context) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> index(products, status, lastUpdate, context, false, report));
+	}
+
+	/**
+	 * Like {@link #bulkIndex(List, Status, Date, IndexContext)}, but products
+	 * whose documents have the same fingerprint as in the last run are not
+	 * sent to solr again. Needs a {@link DeltaIndexStore}. Callers load the
+	 * products changed since {@link #getDeltaWatermark(Status, IndexContext)}.
+	 */
+	public IndexReport deltaIndex(List<Product> products, Status status, Date lastUpdate, IndexContext context) {
+		return index(products, status, lastUpdate, context, true, new IndexReport());
+	}
+
+	/**
+	 * @return lastUpdate of the latest completed run on the collection of the
+	 *         status, null if there is none or no {@link DeltaIndexStore}
+	 */
+	public Date getDeltaWatermark(Status status, IndexContext context) {
+		if (deltaIndexStore == null) {
+			return null;
 		}
+		return deltaIndexStore.loadWatermark(context.getSolrUrls().get(status.name()));
 	}
 
-	public void index(Product product, Product.Status status, Date lastUpdate, IndexContext context) {
+	public CompletableFuture<IndexReport> deltaIndexAsync(List<Product> products, Status status, Date lastUpdate,
+			IndexContext context) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> index(products, status, lastUpdate, context, true, report));
+	}
+
+	/**
+	 * Indexes the products into the collections of several contexts, e.g. all
+	 * shops sharing a catalog. Spans, prices, assets and the context
+	 * independent fields are built once per product, only translations and
+	 * inventory fields per context; each batch is written to all collections
+	 * in parallel. No delta state or run journal is used.
+	 */
+	public IndexReport bulkIndex(List<Product> products, Status status, Date lastUpdate, List<IndexContext> contexts) {
+		return index(products, status, lastUpdate, contexts, new IndexReport());
+	}
+
+	public CompletableFuture<IndexReport> bulkIndexAsync(List<Product> products, Status status, Date lastUpdate,
+			List<IndexContext> contexts) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> index(products, status, lastUpdate, contexts, report));
+	}
+
+	/**
+	 * Indexes the products of several statuses in one run, e.g. staged and
+	 * published. The versions of a product are compared by their JSON: equal
+	 * ones are built once and written to the collections of all their
+	 * statuses, only differing ones are built per status. Products missing
+	 * from the list of a status are left untouched in its collection.
+	 */
+	public IndexReport bulkIndex(Map<Status, List<Product>> productsByStatus, Date lastUpdate, IndexContext context) {
+		return index(productsByStatus, lastUpdate, context, new IndexReport());
+	}
+
+	public CompletableFuture<IndexReport> bulkIndexAsync(Map<Status, List<Product>> productsByStatus,
+			Date lastUpdate, IndexContext context) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> index(productsByStatus, lastUpdate, context, report));
+	}
+
+	/**
+	 * Full rebuild into the shadow collection and alias swap. The url of the
+	 * status must address an alias over the collections &lt;alias&gt;_blue and
+	 * &lt;alias&gt;_green; the one the alias does not point to is cleared,
+	 * filled without intermediate commits or per product deletes, committed
+	 * once and swapped in. The live collection is left untouched if the run
+	 * is cancelled or has more than maxRebuildFailures failures.
+	 */
+	public IndexReport rebuild(List<Product> products, Status status, Date lastUpdate, IndexContext context)
+			throws Exception {
+		return rebuild(products, status, lastUpdate, context, new IndexReport());
+	}
+
+	public CompletableFuture<IndexReport> rebuildAsync(List<Product> products, Status status, Date lastUpdate,
+			IndexContext context) {
+		return IndexExecutors.submit(getAsyncExecutor(), new IndexReport(),
+				report -> rebuild(products, status, lastUpdate, context, report));
+	}
+
+	private IndexReport rebuild(List<Product> products, Status status, Date lastUpdate, IndexContext context,
+			IndexReport report) throws Exception {
+		String liveUrl = context.getSolrUrls().get(status.name());
+		String url = StringUtils.removeEnd(liveUrl, "/");
+		String baseUrl = StringUtils.substringBeforeLast(url, "/");
+		String alias = StringUtils.substringAfterLast(url, "/");
+
+		String live = collectionAdmin.getAliasTarget(baseUrl, alias);
+		String shadow = alias + (StringUtils.endsWith(live, "_blue") ? "_green" : "_blue");
+		String shadowUrl = baseUrl + "/" + shadow;
+		SolrServer solr = getUpdateServer(shadowUrl, context);
+		log.info(String.format("rebuilding %s into %s, live is %s", alias, shadow, live));
+
+		// cleared through the plain client, so the delete has been applied before
+		// any document is streamed
+		UpdateRequest clear = new UpdateRequest();
+		clear.deleteByQuery("*:*");
+		solrWriter.process(shadowUrl, SolrServerCache.getServer(shadowUrl), clear);
+		if (priceActivationScheduler != null) {
+			priceActivationScheduler.cancel(shadowUrl);
+		}
+
+		prefetchTranslations(products, context.getLocales());
+		Map<String, InventoryStatus> inventory = prefetchInventory(products);
+
+		// fingerprints of the rebuilt collection replace the delta state once it is live
+		DeltaIndexState state = (deltaIndexStore != null) ? new DeltaIndexState(liveUrl) : null;
+
+		IndexMetrics metrics = getMetrics();
+		IndexPipeline<Row> pipeline = new IndexPipeline<Row>(row -> row.getCode(), row -> {
+			if (row.isIndexed() != null && !row.isIndexed()) {
+				return null;
+			}
+			InventoryStatus inventoryStatus = (inventory != null) ? inventory.get(row.getCode()) : null;
+			List<SolrInputDocument> docs = getSolrInputDocuments(row.getSnapshot(), row.getIndex(), lastUpdate,
+					context, inventoryStatus, metrics);
+			if (state != null) {
+				state.setFingerprint(row.getCode(), FingerprintUtils.getFingerprint(docs, FINGERPRINT_IGNORED_FIELDS));
+			}
+			return docs;
+		}, batch -> {
+			Map<String, List<SolrInputDocument>> upcoming = null;
+			if (priceActivationScheduler != null) {
+				upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+				batch = PriceActivationScheduler.split(batch, upcoming, new Date());
+			}
+
+			// the shadow collection is empty, so there is nothing to replace
+			UpdateRequest request = new UpdateRequest();
+			int docs = 0;
+			for (List<SolrInputDocument> productDocs : batch.values()) {
+				request.add(productDocs);
+				docs += productDocs.size();
+			}
+			long start = System.nanoTime();
+			try {
+				solrWriter.process(shadowUrl, solr, request);
+				metrics.indexed(batch.size(), docs);
+				if (upcoming != null) {
+					priceActivationScheduler.schedule(shadowUrl, "code", upcoming);
+				}
+			} catch (Exception e) {
+				metrics.failed(IndexMetrics.Stage.SOLR_ADD, e);
+				throw e;
+			} finally {
+				metrics.record(IndexMetrics.Stage.SOLR_ADD, start);
+			}
+		});
+		pipeline.setWorkers(indexWorkers);
+		pipeline.setQueueCapacity(indexQueueCapacity);
+		pipeline.setBatchSize(indexBatchSize);
+
+		pipeline.run(ProductSnapshot.rows(products, indexBatchSize), report);
+		for (Entry<String, String> failure : report.getFailures().entrySet()) {
+			log.error(String.format("error indexing %s - %s", failure.getKey(), failure.getValue()));
+		}
+
+		boolean flushed = flush(solr);
+		if (!flushed || report.isCancelled() || report.getFailed() > maxRebuildFailures) {
+			log.error(String.format("rebuild of %s aborted, %s keeps serving %s: %s", shadow, alias, live, report));
+			if (priceActivationScheduler != null) {
+				priceActivationScheduler.cancel(shadowUrl);
+			}
+			return report;
+		}
+
+		solr.commit();
+		if (optimizeOnRebuild) {
+			solr.optimize();
+		}
+		collectionAdmin.createAlias(baseUrl, alias, shadow);
+		if (priceActivationScheduler != null) {
+			// documents scheduled through the alias are gone with the old collection,
+			// those of the rebuild are superseded by later runs through the alias
+			priceActivationScheduler.move(shadowUrl, liveUrl);
+		}
+		log.info(String.format("rebuild of %s finished, %s swapped in: %s", alias, shadow, report));
+
+		if (state != null) {
+			for (String code : report.getFailures().keySet()) {
+				state.setFingerprint(code, null);
+			}
+			state.setContextFingerprint(FingerprintUtils.getFingerprint(context.getShopCode(), context.getLocales(),
+					context.getCurrencies(), context.getPriceGroups()));
+			state.setWatermark(lastUpdate);
+			try {
+				deltaIndexStore.save(state);
+			} catch (Exception e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+
+		return report;
+	}
+
+	private IndexReport index(List<Product> products, Status status, Date lastUpdate, IndexContext context,
+			boolean delta, IndexReport report) {
+		String url = context.getSolrUrls().get(status.name());
+		SolrServer solr = getUpdateServer(url, context);
+
+		DeltaIndexState state = (deltaIndexStore != null) ? deltaIndexStore.load(url) : null;
+		long contextFingerprint = FingerprintUtils.getFingerprint(context.getShopCode(), context.getLocales(),
+				context.getCurrencies(), context.getPriceGroups());
+		boolean skipUnchanged = delta && state != null && state.getContextFingerprint() == contextFingerprint;
+		if (delta && !skipUnchanged) {
+			log.info(String.format("no usable delta state for %s, indexing all products", url));
+		}
+		Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+		CommitPolicy commitPolicy = getCommitPolicy(context);
+		RunJournal.Run journal = openJournal(url, solr, getRunKey(products, lastUpdate, contextFingerprint, delta));
+
+		prefetchTranslations(products, context.getLocales());
+		Map<String, InventoryStatus> inventory = prefetchInventory(products);
+
+		IndexMetrics metrics = getMetrics();
+		IndexPipeline<Row> pipeline = new IndexPipeline<Row>(row -> row.getCode(), row -> {
+			if (journal != null && journal.isAcknowledged(row.getCode())) {
+				return null;
+			}
+			if (row.isIndexed() != null && !row.isIndexed()) {
+				return Collections.emptyList();
+			}
+			InventoryStatus inventoryStatus = (inventory != null) ? inventory.get(row.getCode()) : null;
+			List<SolrInputDocument> docs = getSolrInputDocuments(row.getSnapshot(), row.getIndex(), lastUpdate,
+					context, inventoryStatus, metrics);
+
+			if (state != null) {
+				long fingerprint = FingerprintUtils.getFingerprint(docs, FINGERPRINT_IGNORED_FIELDS);
+				if (skipUnchanged && state.isUnchanged(row.getCode(), fingerprint)) {
+					report.unchanged();
+					return null;
+				}
+				pending.put(row.getCode(), fingerprint);
+			}
+			return docs;
+		}, batch -> {
+			add(url, solr, batch, commitPolicy, metrics);
+			if (state != null) {
+				for (String code : batch.keySet()) {
+					state.setFingerprint(code, pending.remove(code));
+				}
+			}
+			if (journal != null) {
+				journal.acknowledge(batch.keySet());
+			}
+		});
+		pipeline.setWorkers(indexWorkers);
+		pipeline.setQueueCapacity(indexQueueCapacity);
+		pipeline.setBatchSize(indexBatchSize);
+
+		pipeline.run(ProductSnapshot.rows(products, indexBatchSize), report);
+		for (Entry<String, String> failure : report.getFailures().entrySet()) {
+			log.error(String.format("error indexing %s - %s", failure.getKey(), failure.getValue()));
+		}
+		boolean flushed = flush(solr);
 		try {
-			String url = context.getSolrUrls().get(status.name());
-			SolrServer solr = SolrServerCache.getServer(url);
+			commitPolicy.afterRun(solr);
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+		closeJournal(journal, report);
 
-			// delete existing entries
+		if (state != null) {
+			if (!flushed) {
+				// unknown which streamed batches were lost, index everything next time
+				state.clearFingerprints();
+			}
+			state.setContextFingerprint(contextFingerprint);
+			// failed products must be loaded again by the next delta run
+			if (flushed && !report.isCancelled() && report.getFailed() == 0) {
+				state.advanceWatermark(lastUpdate);
+			}
 			try {
-				String q = new StringBuilder("code:").append(product.getCode()).toString();
-				solr.deleteByQuery(q, 10000);
+				deltaIndexStore.save(state);
 			} catch (Exception e) {
 				log.error(ExceptionUtils.getStackTrace(e));
 			}
-			
-			if (product.isIndexed() != null && !product.isIndexed()) {
-				return;
-			}
-			
-			// get all relevant time spans
-			List<Date> dates = new ArrayList<Date>();
-			dates.add(getDefaultTo().getTime());
-			product.getPrices().forEach(price -> {
-				try {
-					dates.add(price.getStart());
-				} catch (Exception e) {
+		}
+		if (delta) {
+			log.info(String.format("delta index of %s: %d unchanged products skipped, %d sent", url,
+					report.getUnchanged(), report.getIndexed()));
+		}
+		return report;
+	}
+
+	private IndexReport index(List<Product> products, Status status, Date lastUpdate, List<IndexContext> contexts,
+			IndexReport report) {
+		List<String> urls = new ArrayList<String>(contexts.size());
+		Set<Locale> locales = new LinkedHashSet<Locale>();
+		for (IndexContext context : contexts) {
+			urls.add(context.getSolrUrls().get(status.name()));
+			locales.addAll(context.getLocales());
+		}
+
+		prefetchTranslations(products, new ArrayList<Locale>(locales));
+		Map<String, InventoryStatus> inventory = prefetchInventory(products);
+
+		IndexMetrics metrics = getMetrics();
+		return fanOut(ProductSnapshot.rows(products, indexBatchSize), row -> row.getCode(), row -> {
+			if (row.isIndexed() != null && !row.isIndexed()) {
+				return Collections.nCopies(contexts.size(), Collections.<SolrInputDocument> emptyList());
+			}
+			InventoryStatus inventoryStatus = (inventory != null) ? inventory.get(row.getCode()) : null;
+			return getSolrInputDocuments(row.getSnapshot(), row.getIndex(), lastUpdate, contexts, inventoryStatus,
+					metrics);
+		}, urls, contexts, report);
+	}
+
+	private IndexReport index(Map<Status, List<Product>> productsByStatus, Date lastUpdate, IndexContext context,
+			IndexReport report) {
+		List<Status> statuses = new ArrayList<Status>(productsByStatus.keySet());
+		int n = statuses.size();
+		List<String> urls = new ArrayList<String>(n);
+		List<Product> products = new ArrayList<Product>();
+		Map<String, Product[]> versions = new LinkedHashMap<String, Product[]>();
+		for (int i = 0; i < n; i++) {
+			urls.add(context.getSolrUrls().get(statuses.get(i).name()));
+			for (Product product : productsByStatus.get(statuses.get(i))) {
+				versions.computeIfAbsent(product.getCode(), k -> new Product[n])[i] = product;
+				products.add(product);
+			}
+		}
+
+		prefetchTranslations(products, context.getLocales());
+		Map<String, InventoryStatus> inventory = prefetchInventory(products);
+
+		IndexMetrics metrics = getMetrics();
+		AtomicInteger reused = new AtomicInteger();
+		fanOut(versions.entrySet(), e -> e.getKey(), e -> {
+			Product[] v = e.getValue();
+			List<List<SolrInputDocument>> docsByStatus = new ArrayList<List<SolrInputDocument>>(n);
+			for (int i = 0; i < n; i++) {
+				List<SolrInputDocument> docs = null;
+				for (int j = 0; j < i && docs == null && v[i] != null; j++) {
+					if (v[j] != null && isSameContent(v[i], v[j])) {
+						docs = docsByStatus.get(j);
+						reused.incrementAndGet();
+					}
+				}
+				if (docs == null && v[i] != null) {
+					if (v[i].isIndexed() != null && !v[i].isIndexed()) {
+						docs = Collections.emptyList();
+					} else {
+						InventoryStatus inventoryStatus = (inventory != null) ? inventory.get(e.getKey()) : null;
+						docs = getSolrInputDocuments(ProductSnapshot.of(Collections.singletonList(v[i])), 0,
+								lastUpdate, context, inventoryStatus, metrics);
+					}
 				}
-			});
-			Collections.sort(dates);
+				docsByStatus.add(docs);
+			}
+			return docsByStatus;
+		}, urls, Collections.nCopies(n, context), report);
+
+		log.info(String.format("%d product versions of %s shared their documents with another status", reused.get(),
+				statuses));
+		return report;
+	}
+
+	/**
+	 * @return true if the versions of a product agree in every field the
+	 *         documents are built from, false if that cannot be told
+	 */
+	private boolean isSameContent(Product a, Product b) {
+		if (a == b) {
+			return true;
+		}
+		try {
+			return Objects.equals(a.isIndexed(), b.isIndexed()) && Objects.equals(a.getCode(), b.getCode())
+					&& Objects.equals(a.getType(), b.getType()) && Objects.equals(a.getUnit(), b.getUnit())
+					&& Objects.equals(a.getPrimaryGroup(), b.getPrimaryGroup())
+					&& Objects.equals(a.getSecondaryGroup(), b.getSecondaryGroup())
+					&& Objects.equals(a.getBasePrice1Divisor(), b.getBasePrice1Divisor())
+					&& Objects.equals(a.getBasePrice1Unit(), b.getBasePrice1Unit())
+					&& Objects.equals(a.getBasePrice2Divisor(), b.getBasePrice2Divisor())
+					&& Objects.equals(a.getBasePrice2Unit(), b.getBasePrice2Unit())
+					&& Objects.equals(a.getBrand(), b.getBrand()) && Objects.equals(a.getName(), b.getName())
+					&& Objects.equals(a.getCategories(), b.getCategories())
+					&& Objects.equals(a.getLogos(), b.getLogos()) && Objects.equals(a.getTags(), b.getTags())
+					&& isSamePrices(a.getPrices(), b.getPrices())
+					&& JsonUtils.toJson(a.getAssets()).equals(JsonUtils.toJson(b.getAssets()));
+		} catch (Exception e) {
+			log.warn(String.format("cannot compare versions of %s: %s", a.getCode(), e.getMessage()));
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if both lists have the same price rows in the same order,
+	 *         compared by the fields {@link PriceTimeline} reads
+	 */
+	private boolean isSamePrices(List<Price> a, List<Price> b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			Price p = a.get(i);
+			Price q = b.get(i);
+			if (!Objects.equals(p.getCurrency(), q.getCurrency()) || !Objects.equals(p.getGroup(), q.getGroup())
+					|| !Objects.equals(p.getTag(), q.getTag()) || !Objects.equals(p.getStart(), q.getStart())
+					|| !Objects.equals(p.getValue(), q.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds every item once and writes its documents to several
+	 * collections, each batch to all of them in parallel on writer threads of
+	 * the run. Items are deduplicated by key, the last one wins.
+	 *
+	 * @param builder
+	 *            documents of an item per collection, null for collections
+	 *            the item is not sent to
+	 * @param contexts
+	 *            the context of each url, for its update server and commit
+	 *            policy
+	 */
+	private <T> IndexReport fanOut(Iterable<T> items, IndexPipeline.KeyResolver<T> keyResolver,
+			FanOutBuilder<T> builder, List<String> urls, List<IndexContext> contexts, IndexReport report) {
+		Map<String, T> unique = new LinkedHashMap<String, T>();
+		int count = 0;
+		for (T item : items) {
+			unique.put(keyResolver.getKey(item), item);
+			count++;
+		}
+		if (unique.size() < count) {
+			log.warn(String.format("%d duplicate products dropped", count - unique.size()));
+		}
+
+		int n = urls.size();
+		List<SolrServer> servers = new ArrayList<SolrServer>(n);
+		List<CommitPolicy> commitPolicies = new ArrayList<CommitPolicy>(n);
+		for (int i = 0; i < n; i++) {
+			servers.add(getUpdateServer(urls.get(i), contexts.get(i)));
+			commitPolicies.add(getCommitPolicy(contexts.get(i)));
+		}
+
+		// documents per collection, handed from the workers to the writer
+		Map<String, List<List<SolrInputDocument>>> pending = new ConcurrentHashMap<String, List<List<SolrInputDocument>>>();
+
+		// not the async executor: a run on it would wait for its own writes
+		ExecutorService writers = IndexExecutors.newFixedExecutor("index-fan-out", n);
+
+		IndexMetrics metrics = getMetrics();
+		IndexPipeline<T> pipeline = new IndexPipeline<T>(keyResolver, item -> {
+			List<List<SolrInputDocument>> docsByUrl = builder.build(item);
+			pending.put(keyResolver.getKey(item), docsByUrl);
 
 			List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
-			Iterator<Date> iterator = dates.iterator();
-			for (Date to = iterator.next(); iterator.hasNext();) {
-				Date from = to;
-				to = iterator.next();
-
-				try {
-					SolrInputDocument doc = getSolrInputDocument(context.getShopCode(), product, lastUpdate, from, to,
-							context.getLocales(), context.getCurrencies(), context.getPriceGroups());
-					docs.add(doc);
-				} catch (Exception e) {
-					log.error(ExceptionUtils.getStackTrace(e));
+			for (List<SolrInputDocument> urlDocs : docsByUrl) {
+				if (urlDocs != null) {
+					docs.addAll(urlDocs);
+				}
+			}
+			return docs;
+		}, batch -> {
+			List<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>(n);
+			for (int i = 0; i < n; i++) {
+				Map<String, List<SolrInputDocument>> urlBatch = new LinkedHashMap<String, List<SolrInputDocument>>();
+				for (String key : batch.keySet()) {
+					List<SolrInputDocument> docs = pending.get(key).get(i);
+					if (docs != null) {
+						urlBatch.put(key, docs);
+					}
+				}
+				if (urlBatch.isEmpty()) {
+					continue;
+				}
+				String url = urls.get(i);
+				SolrServer solr = servers.get(i);
+				CommitPolicy commitPolicy = commitPolicies.get(i);
+				writes.add(CompletableFuture.runAsync(() -> {
+					try {
+						add(url, solr, urlBatch, commitPolicy, metrics);
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+				}, writers));
+			}
+			pending.keySet().removeAll(batch.keySet());
+			try {
+				CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).join();
+			} catch (CompletionException e) {
+				throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+			}
+		});
+		pipeline.setWorkers(indexWorkers);
+		pipeline.setQueueCapacity(indexQueueCapacity);
+		pipeline.setBatchSize(indexBatchSize);
+
+		try {
+			pipeline.run(unique.values(), report);
+		} finally {
+			writers.shutdown();
+		}
+		for (Entry<String, String> failure : report.getFailures().entrySet()) {
+			log.error(String.format("error indexing %s - %s", failure.getKey(), failure.getValue()));
+		}
+		for (int i = 0; i < n; i++) {
+			flush(servers.get(i));
+			try {
+				commitPolicies.get(i).afterRun(servers.get(i));
+			} catch (Exception e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+		log.info(String.format("indexed into %s: %s", urls, report));
+		return report;
+	}
+
+	private interface FanOutBuilder<T> {
+		List<List<SolrInputDocument>> build(T item) throws Exception;
+	}
+
+	/**
+	 * @return identity of a run: only a retry of the same run, with the same
+	 *         products and lastUpdate, resumes its journal
+	 */
+	private long getRunKey(List<Product> products, Date lastUpdate, long contextFingerprint, boolean delta) {
+		List<String> codes = new ArrayList<String>(products.size());
+		for (Product product : products) {
+			codes.add(product.getCode());
+		}
+		return FingerprintUtils.getFingerprint(contextFingerprint, delta, lastUpdate, codes);
+	}
+
+	/**
+	 * @return the journal of the run or null if there is no
+	 *         {@link RunJournal}; streamed batches are only queued when the
+	 *         writer returns, so they are never journaled
+	 */
+	private RunJournal.Run openJournal(String url, SolrServer solr, long runKey) {
+		if (runJournal == null || solr instanceof StreamingSolrServer) {
+			return null;
+		}
+		try {
+			return runJournal.open(url, runKey);
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the journal of a complete run, keeps it to resume from otherwise.
+	 */
+	private void closeJournal(RunJournal.Run journal, IndexReport report) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			if (report.isCancelled() || report.getFailed() > 0) {
+				journal.close();
+			} else {
+				journal.complete();
+			}
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	/**
+	 * @return the streaming update client if the context asks for it, the
+	 *         shared http client otherwise
+	 */
+	protected SolrServer getUpdateServer(String url, IndexContext context) {
+		boolean streaming = context instanceof IndexContextImpl && ((IndexContextImpl) context).isStreamingUpdates();
+		return SolrServerCache.getServer(url, streaming);
+	}
+
+	/**
+	 * Waits for a streaming client to send its queue.
+	 *
+	 * @return false if streamed updates failed
+	 */
+	private boolean flush(SolrServer solr) {
+		if (solr instanceof StreamingSolrServer) {
+			try {
+				((StreamingSolrServer) solr).flush();
+			} catch (Exception e) {
+				log.error(ExceptionUtils.getStackTrace(e));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the translations of the products to the
+	 * {@link TranslationDictionary}, e.g. after a catalog import.
+	 */
+	public void updateTranslationDictionary(List<Product> products, List<Locale> locales) throws IOException {
+		Set<TranslationCache.Key> keys = new LinkedHashSet<TranslationCache.Key>();
+		for (Product product : products) {
+			addTranslationKeys(keys, product, locales);
+		}
+		getTranslationCache().updateDictionary(keys);
+	}
+
+	public void prefetchTranslations(List<Product> products, List<Locale> locales) {
+		try {
+			Set<TranslationCache.Key> keys = new LinkedHashSet<TranslationCache.Key>();
+			for (Product product : products) {
+				if (product.isIndexed() == null || product.isIndexed()) {
+					addTranslationKeys(keys, product, locales);
 				}
 			}
+			getTranslationCache().prefetch(keys);
+		} catch (Exception e) {
+			log.warn(String.format("translation prefetch failed: %s", e.getMessage()));
+		}
+	}
 
-			if (!docs.isEmpty()) {
-				solr.add(docs, 10000);
-				log.info(docs.toString());
+	/**
+	 * @return the inventory status per code or null if there is no inventory
+	 *         service
+	 */
+	public Map<String, InventoryStatus> prefetchInventory(List<Product> products) {
+		if (inventoryService == null) {
+			return null;
+		}
+		List<String> codes = new ArrayList<String>(products.size());
+		for (Product product : products) {
+			if (product.isIndexed() == null || product.isIndexed()) {
+				codes.add(product.getCode());
+			}
+		}
+		return getInventoryLoader().getAll(codes);
+	}
+
+	protected void addTranslationKeys(Set<TranslationCache.Key> keys, Product product, List<Locale> locales) {
+		for (Locale locale : locales) {
+			keys.add(new TranslationCache.Key("index.brand", "text", product.getBrand(), locale));
+			keys.add(new TranslationCache.Key("index.name", "text", product.getName(), locale));
+			for (String category : product.getCategories()) {
+				keys.add(new TranslationCache.Key("category", "text", category, locale));
+			}
+		}
+	}
+
+	/**
+	 * Stock only update: sets the moq and available fields of all time span
+	 * documents of the given codes without rebuilding them.
+	 */
+	public void updateInventory(Map<String, InventoryStatus> inventory, Status status, IndexContext context) {
+		try {
+			String url = context.getSolrUrls().get(status.name());
+			SolrServer solr = SolrServerCache.getServer(url);
+
+			new InventoryUpdater("code", solrWriter, priceActivationScheduler).update(url, solr, inventory,
+					context.getPriceGroups(), getCommitPolicy(context));
+		} catch (Exception e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+	}
+
+	public void index(Product product, Product.Status status, Date lastUpdate, IndexContext context) {
+		try {
+			String url = context.getSolrUrls().get(status.name());
+			SolrServer solr = SolrServerCache.getServer(url);
+
+			IndexMetrics metrics = getMetrics();
+			List<SolrInputDocument> docs = Collections.emptyList();
+			if (product.isIndexed() == null || product.isIndexed()) {
+				// resolves the translations of all locales and fields at once
+				prefetchTranslations(Collections.singletonList(product), context.getLocales());
+				InventoryStatus inventoryStatus = (inventoryService != null)
+						? getInventoryLoader().get(product.getCode()) : null;
+				docs = getSolrInputDocuments(ProductSnapshot.of(Collections.singletonList(product)), 0, lastUpdate,
+						context, inventoryStatus, metrics);
+			}
+
+			// replace existing entries
+			CommitPolicy commitPolicy = getCommitPolicy(context);
+			add(url, solr, Collections.singletonMap(product.getCode(), docs), commitPolicy, metrics);
+			commitPolicy.afterRun(solr);
+			if (!docs.isEmpty() && log.isDebugEnabled()) {
+				log.debug(String.format("indexed %d documents for code=%s", docs.size(), product.getCode()));
+				if (metrics.isSampled()) {
+					log.debug(docs.toString());
+				}
 			}
 
 		} catch (Exception e) {
@@ -101,140 +803,349 @@ public class XIndexServiceImpl implements XIndexService {
 		}
 	}
 
+	private void add(String url, SolrServer solr, Map<String, List<SolrInputDocument>> batch,
+			CommitPolicy commitPolicy, IndexMetrics metrics) throws Exception {
+		Map<String, List<SolrInputDocument>> upcoming = null;
+		if (priceActivationScheduler != null) {
+			upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+			batch = PriceActivationScheduler.split(batch, upcoming, new Date());
+		}
+
+		int docs = 0;
+		for (List<SolrInputDocument> d : batch.values()) {
+			docs += d.size();
+		}
+		long start = System.nanoTime();
+		try {
+			solrWriter.process(url, solr, getReplaceRequest(batch, commitPolicy));
+			commitPolicy.afterBatch(solr);
+			metrics.indexed(batch.size(), docs);
+			if (upcoming != null) {
+				priceActivationScheduler.schedule(url, "code", upcoming);
+			}
+		} catch (Exception e) {
+			metrics.failed(IndexMetrics.Stage.SOLR_ADD, e);
+			throw e;
+		} finally {
+			metrics.record(IndexMetrics.Stage.SOLR_ADD, start);
+		}
+	}
+
+	/**
+	 * Single update request adding the batch and deleting every other entry of
+	 * the batch codes, so solr never serves a code without documents.
+	 */
+	protected UpdateRequest getReplaceRequest(Map<String, List<SolrInputDocument>> batch,
+			CommitPolicy commitPolicy) {
+		UpdateRequest request = new UpdateRequest();
+		Map<String, List<String>> idsByCode = new LinkedHashMap<String, List<String>>();
+		for (Entry<String, List<SolrInputDocument>> e : batch.entrySet()) {
+			List<String> ids = new ArrayList<String>(e.getValue().size());
+			for (SolrInputDocument doc : e.getValue()) {
+				ids.add((String) doc.getFieldValue("id"));
+				request.add(doc);
+			}
+			idsByCode.put(e.getKey(), ids);
+		}
+		for (String q : SolrQueryUtils.getReplaceQueries("code", "id", idsByCode)) {
+			request.deleteByQuery(q);
+		}
+		commitPolicy.apply(request);
+
+		return request;
+	}
+
+	protected List<SolrInputDocument> getSolrInputDocuments(Product product, Date lastUpdate, IndexContext context) {
+		InventoryStatus inventoryStatus = (inventoryService != null) ? getInventoryLoader().get(product.getCode())
+				: null;
+		return getSolrInputDocuments(product, lastUpdate, context, inventoryStatus);
+	}
+
+	/**
+	 * @return the documents of product i of the snapshot for each of the
+	 *         contexts
+	 */
+	private List<List<SolrInputDocument>> getSolrInputDocuments(ProductSnapshot snapshot, int i, Date lastUpdate,
+			List<IndexContext> contexts, InventoryStatus inventoryStatus, IndexMetrics metrics) {
+		long start = System.nanoTime();
+		try {
+			ProductIndexData shared = new ProductIndexData();
+			shared.setInventoryStatus(inventoryStatus);
+			shared.setPrices(PriceTimeline.ofSnapshot(snapshot, i));
+			shared.setAssetsJson(snapshot.getAssetsJson(i));
+			SolrInputDocument sharedDocument = getSharedDocument(snapshot, i, lastUpdate, shared);
+			List<TimeSpan> spans = timeSpanPlanner.plan(getTimeSpanDates(snapshot, i), shared.getPrices(),
+					new Date());
+
+			List<List<SolrInputDocument>> docsByContext = new ArrayList<List<SolrInputDocument>>(contexts.size());
+			for (IndexContext context : contexts) {
+				ProductIndexData data = new ProductIndexData();
+				data.setInventoryStatus(inventoryStatus);
+				data.setPrices(shared.getPrices());
+				data.setAssetsJson(shared.getAssetsJson());
+				data.setFieldNames(
+						FieldNames.get(context.getLocales(), context.getCurrencies(), context.getPriceGroups()));
+
+				SolrInputDocument productDocument = sharedDocument.deepCopy();
+				addContextFields(productDocument, snapshot, i, context.getLocales(), context.getPriceGroups(), data);
+				data.setProductDocument(productDocument);
+
+				List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(spans.size());
+				for (TimeSpan span : spans) {
+					docs.add(getSpanDocument(snapshot.getCode(i), span.getFrom(), span.getTo(), data));
+				}
+				docsByContext.add(docs);
+			}
+			return docsByContext;
+		} catch (RuntimeException e) {
+			metrics.failed(IndexMetrics.Stage.BUILD, e);
+			throw e;
+		} finally {
+			metrics.record(IndexMetrics.Stage.BUILD, start);
+		}
+	}
+
+	private List<SolrInputDocument> getSolrInputDocuments(ProductSnapshot snapshot, int i, Date lastUpdate,
+			IndexContext context, InventoryStatus inventoryStatus, IndexMetrics metrics) {
+		long start = System.nanoTime();
+		try {
+			return getSolrInputDocuments(snapshot, i, lastUpdate, context, inventoryStatus);
+		} catch (RuntimeException e) {
+			metrics.failed(IndexMetrics.Stage.BUILD, e);
+			throw e;
+		} finally {
+			metrics.record(IndexMetrics.Stage.BUILD, start);
+		}
+	}
+
+	protected List<SolrInputDocument> getSolrInputDocuments(Product product, Date lastUpdate, IndexContext context,
+			InventoryStatus inventoryStatus) {
+		return getSolrInputDocuments(ProductSnapshot.of(Collections.singletonList(product)), 0, lastUpdate, context,
+				inventoryStatus);
+	}
+
+	/**
+	 * @return the documents of product i of the snapshot, one per time span
+	 */
+	protected List<SolrInputDocument> getSolrInputDocuments(ProductSnapshot snapshot, int i, Date lastUpdate,
+			IndexContext context, InventoryStatus inventoryStatus) {
+		ProductIndexData data = getProductIndexData(snapshot, i, inventoryStatus, context.getLocales(),
+				context.getCurrencies(), context.getPriceGroups());
+		SolrInputDocument productDocument = getSharedDocument(snapshot, i, lastUpdate, data);
+		addContextFields(productDocument, snapshot, i, context.getLocales(), context.getPriceGroups(), data);
+		data.setProductDocument(productDocument);
+
+		List<TimeSpan> spans = timeSpanPlanner.plan(getTimeSpanDates(snapshot, i), data.getPrices(), new Date());
+
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(spans.size());
+		for (TimeSpan span : spans) {
+			docs.add(getSpanDocument(snapshot.getCode(i), span.getFrom(), span.getTo(), data));
+		}
+		return docs;
+	}
+
+	/**
+	 * @return sorted boundaries of the time spans, the
+	 *         {@link TimeSpanPlanner} dedupes and merges them
+	 */
+	protected List<Date> getTimeSpanDates(Product product) {
+		return getTimeSpanDates(ProductSnapshot.of(Collections.singletonList(product)), 0);
+	}
+
+	protected List<Date> getTimeSpanDates(ProductSnapshot snapshot, int i) {
+		// get all relevant time spans
+		int n = snapshot.getPriceCount(i);
+		long[] starts = new long[n + 1];
+		int count = 0;
+		starts[count++] = getDefaultTo().getTimeInMillis();
+		for (int k = 0; k < n; k++) {
+			if (snapshot.hasPriceStart(i, k)) {
+				starts[count++] = snapshot.getPriceStart(i, k);
+			}
+		}
+		Arrays.sort(starts, 0, count);
+
+		List<Date> dates = new ArrayList<Date>(count);
+		for (int k = 0; k < count; k++) {
+			dates.add(new Date(starts[k]));
+		}
+		return dates;
+	}
+
 	protected SolrInputDocument getSolrInputDocument(String shop, Product product, Date lastUpdate, Date from, Date to,
 			List<Locale> locales, List<Currency> currencies, List<String> priceGroups) {
-		SolrInputDocument doc = new SolrInputDocument();
+		InventoryStatus inventoryStatus = (inventoryService != null) ? getInventoryLoader().get(product.getCode())
+				: null;
+		ProductIndexData data = getProductIndexData(product, inventoryStatus, locales, currencies, priceGroups);
+		return getSolrInputDocument(shop, product, lastUpdate, from, to, locales, currencies, priceGroups, data);
+	}
+
+	protected ProductIndexData getProductIndexData(Product product, InventoryStatus inventoryStatus,
+			List<Locale> locales, List<Currency> currencies, List<String> priceGroups) {
+		return getProductIndexData(ProductSnapshot.of(Collections.singletonList(product)), 0, inventoryStatus,
+				locales, currencies, priceGroups);
+	}
+
+	protected ProductIndexData getProductIndexData(ProductSnapshot snapshot, int i, InventoryStatus inventoryStatus,
+			List<Locale> locales, List<Currency> currencies, List<String> priceGroups) {
+		ProductIndexData data = new ProductIndexData();
+		data.setInventoryStatus(inventoryStatus);
+		data.setPrices(PriceTimeline.ofSnapshot(snapshot, i));
+		data.setFieldNames(FieldNames.get(locales, currencies, priceGroups));
+		data.setAssetsJson(snapshot.getAssetsJson(i));
+
+		return data;
+	}
+
+	protected SolrInputDocument getSolrInputDocument(String shop, Product product, Date lastUpdate, Date from, Date to,
+			List<Locale> locales, List<Currency> currencies, List<String> priceGroups, ProductIndexData data) {
+		if (data.getProductDocument() == null) {
+			data.setProductDocument(
+					getProductDocument(shop, product, lastUpdate, locales, currencies, priceGroups, data));
+		}
+		return getSpanDocument(product.getCode(), from, to, data);
+	}
+
+	/**
+	 * @return a copy of the product document with the span and the prices in
+	 *         effect at its start
+	 */
+	private SolrInputDocument getSpanDocument(String code, Date from, Date to, ProductIndexData data) {
+		SolrInputDocument doc = data.getProductDocument().deepCopy();
 
-		doc.addField("last_update", lastUpdate);
 		doc.addField("active_from", from);
 		doc.addField("active_to", to);
 
-		String code = product.getCode();
-		doc.addField("code", code);
-
 		String id = new StringBuilder(code).append("-").append(from).toString();
 		doc.addField("id", id);
 
-		String type = product.getType().name();
-		doc.addField("type", type);
+		for (PriceTimeline.Series series : data.getPrices().getSeries()) {
+			BigDecimal value = series.getValue(from);
+			if (value != null) {
+				doc.setField(series.getFieldName(), value);
+			}
+		}
 
-		String unit = product.getUnit().name();
-		doc.setField("unit_code", unit);
+		return doc;
+	}
 
-		String primaryGroup = product.getPrimaryGroup();
-		doc.addField("primary_group", primaryGroup);
+	/**
+	 * @return the fields shared by all time span documents of the product
+	 */
+	protected SolrInputDocument getProductDocument(String shop, Product product, Date lastUpdate,
+			List<Locale> locales, List<Currency> currencies, List<String> priceGroups, ProductIndexData data) {
+		ProductSnapshot snapshot = ProductSnapshot.of(Collections.singletonList(product));
+		SolrInputDocument doc = getSharedDocument(snapshot, 0, lastUpdate, data);
+		addContextFields(doc, snapshot, 0, locales, priceGroups, data);
+		return doc;
+	}
 
-		String secondaryGroup = product.getSecondaryGroup();
-		doc.addField("secondary_group", secondaryGroup);
+	/**
+	 * @return the fields that do not depend on the locales, currencies and
+	 *         price groups of a context
+	 */
+	protected SolrInputDocument getSharedDocument(ProductSnapshot snapshot, int i, Date lastUpdate,
+			ProductIndexData data) {
+		SolrInputDocument doc = new SolrInputDocument();
 
-		String brand = product.getBrand();
-		addI18NFields(doc, shop, "brand", brand, "index.brand", "text", locales, false);
+		doc.addField("last_update", lastUpdate);
 
-		String name = product.getName();
-		addI18NFields(doc, shop, "name", name, "index.name", "text", locales, false);
+		String code = snapshot.getCode(i);
+		doc.addField("code", code);
 
-		List<String> categories = product.getCategories();
-		for (String category : categories) {
-			addI18NFields(doc, shop, "category", category, "category", "text", locales, true);
-		}
+		String type = snapshot.getType(i);
+		doc.addField("type", type);
 
-		Map<String, Price> priceMap = new HashMap<>();
-		for (Price price : product.getPrices()) {
-			String key = new StringBuilder(price.getCurrency().getCurrencyCode()).append("_").append(price.getGroup())
-					.append("_").append(price.getTag()).append("_price").toString().toLowerCase();
-			
-			if (!price.getStart().after(from)) {
-				if (priceMap.containsKey(key)) {
-					if (priceMap.get(key).getStart().before(price.getStart())) {
-						priceMap.put(key, price);
-					}
-				} else {
-					priceMap.put(key, price);					
-				}
-			}
-		}		
-		for(Entry<String, Price> e : priceMap.entrySet()) {
-			doc.setField(e.getKey(), e.getValue().getValue());
-		}
+		String unit = snapshot.getUnit(i);
+		doc.setField("unit_code", unit);
+
+		String primaryGroup = snapshot.getPrimaryGroup(i);
+		doc.addField("primary_group", primaryGroup);
 
-		BigDecimal basePrice1Divisor = product.getBasePrice1Divisor();
-		String basePrice1Unit = product.getBasePrice1Unit();
+		String secondaryGroup = snapshot.getSecondaryGroup(i);
+		doc.addField("secondary_group", secondaryGroup);
+
+		BigDecimal basePrice1Divisor = snapshot.getBasePriceDivisor(i, 1);
+		String basePrice1Unit = snapshot.getBasePriceUnit(i, 1);
 		if (basePrice1Divisor != null && StringUtils.isNotBlank(basePrice1Unit)) {
 			doc.setField("base_price_1_divisor", basePrice1Divisor);
 			doc.setField("base_price_1_unit_code", basePrice1Unit);
 		}
 
-		BigDecimal basePrice2Divisor = product.getBasePrice2Divisor();
-		String basePrice2Unit = product.getBasePrice2Unit();
+		BigDecimal basePrice2Divisor = snapshot.getBasePriceDivisor(i, 2);
+		String basePrice2Unit = snapshot.getBasePriceUnit(i, 2);
 		if (basePrice2Divisor != null && StringUtils.isNotBlank(basePrice2Unit)) {
 			doc.setField("base_price_2_divisor", basePrice2Divisor);
 			doc.setField("base_price_2_unit_code", basePrice2Unit);
 		}
 
-		for (String key : product.getLogos().keySet()) {
-			String codeField = new StringBuilder("logos_").append(key).append("_codes").toString().toLowerCase();
-			doc.addField(codeField, product.getLogos().get(key));
+		for (int k = 0, n = snapshot.getLogoCount(i); k < n; k++) {
+			doc.addField(FieldNames.getLogoField(snapshot.getLogoKey(i, k)), snapshot.getLogoValue(i, k));
 		}
 
-		for (String key : product.getTags().keySet()) {
-			String codeField = new StringBuilder("tags_").append(key).append("_codes").toString().toLowerCase();
-			doc.addField(codeField, product.getTags().get(key));
+		for (int k = 0, n = snapshot.getTagCount(i); k < n; k++) {
+			doc.addField(FieldNames.getTagField(snapshot.getTagKey(i, k)), snapshot.getTagValue(i, k));
 		}
 
-		try {
-			Map<String, List<Map<String, Asset>>> assets = product.getAssets();
-
-			ObjectMapper mapper = new ObjectMapper();
-			doc.setField("assets", mapper.writeValueAsString(assets));
-
-		} catch (Exception e) {
-			log.error(String.format("error while writing assets on %s", code));
+		if (data.getAssetsJson() != null) {
+			doc.setField("assets", data.getAssetsJson());
 		}
 
-		if (inventoryService != null) {
-			try {
-				InventoryStatus status = inventoryService.getInventoryStatus(code);
-
-				for (String priceGroup : priceGroups) {
-					// TODO: get buffer per price group and gtin
+		return doc;
+	}
 
-					Integer stock = status.getStock();
-					Integer outOfStockLimit = status.getOutOfStockLimit();
-					Integer moq = stock - outOfStockLimit;
+	/**
+	 * Adds the translations of the context locales and the inventory of its
+	 * price groups.
+	 */
+	protected void addContextFields(SolrInputDocument doc, ProductSnapshot snapshot, int i, List<Locale> locales,
+			List<String> priceGroups, ProductIndexData data) {
+		FieldNames fieldNames = data.getFieldNames();
 
-					String moqFieldName = new StringBuilder(priceGroup).append("_moq").toString().toLowerCase();
-					doc.addField(moqFieldName, moq);
+		String brand = snapshot.getBrand(i);
+		addI18NFields(doc, fieldNames, "brand", brand, "index.brand", "text", locales, false);
 
-					String visibleFieldName = new StringBuilder(priceGroup).append("_available").toString()
-							.toLowerCase();
-					doc.addField(visibleFieldName, (moq > 0) ? 1 : 0);
-				}
-			} catch (Exception e) {
-				log.error(String.format("inventory error on %s", code));
+		String name = snapshot.getName(i);
+		addI18NFields(doc, fieldNames, "name", name, "index.name", "text", locales, false);
 
-				for (String priceGroup : priceGroups) {
-					String moqFieldName = new StringBuilder(priceGroup).append("_moq").toString().toLowerCase();
-					doc.addField(moqFieldName, 0);
+		for (int k = 0, n = snapshot.getCategoryCount(i); k < n; k++) {
+			addI18NFields(doc, fieldNames, "category", snapshot.getCategory(i, k), "category", "text", locales,
+					true);
+		}
 
-					String visibleFieldName = new StringBuilder(priceGroup).append("_available").toString()
-							.toLowerCase();
-					doc.addField(visibleFieldName, 0);
-				}
-			}
+		if (inventoryService != null) {
+			addInventoryFields(doc, fieldNames, snapshot.getCode(i), data.getInventoryStatus(), priceGroups);
 		}
+	}
 
-		return doc;
+	protected void addInventoryFields(SolrInputDocument doc, FieldNames fieldNames, String code,
+			InventoryStatus status, List<String> priceGroups) {
+		int moq = InventoryLoader.getMoq(code, status);
+
+		for (int g = 0; g < priceGroups.size(); g++) {
+			doc.addField(fieldNames.getMoqField(g), moq);
+			doc.addField(fieldNames.getAvailableField(g), (moq > 0) ? 1 : 0);
+		}
 	}
 
+	/**
+	 * Indexes into the collection configured for code_status in the
+	 * {@link SolrServerFactory}, see
+	 * {@link #bulkIndex(List, Status, Date, IndexContext)}.
+	 */
 	@Override
 	public void index(List<Product> products, String code, Status status, Date lastUpdate, List<Locale> locales,
 			List<Currency> currencies, List<String> priceGroups) {
 		try {
 			String solrCollectionCode = code.concat("_").concat(status.name()).toLowerCase();
-			SolrServer solr = SolrServerCache.getServer(solrCollectionCode);
-
-			System.out.println("test");
+			IndexContextImpl context = new IndexContextImpl();
+			context.setShopCode(code);
+			context.setLocales(locales);
+			context.setCurrencies(currencies);
+			context.setPriceGroups(priceGroups);
+			context.getSolrUrls().put(status.name(), SolrServerFactory.getUrl(solrCollectionCode));
 
+			bulkIndex(products, status, lastUpdate, context);
 		} catch (Exception e) {
 			log.error(ExceptionUtils.getStackTrace(e));
 		}
@@ -242,14 +1153,49 @@ public class XIndexServiceImpl implements XIndexService {
 
 	@Override
 	public void delete(List<String> codes, String solrCode, String status) {
-		// TODO Auto-generated method stub
+		if (codes.isEmpty()) {
+			return;
+		}
+		String solrCollectionCode = solrCode.concat("_").concat(status).toLowerCase();
+		String url = SolrServerFactory.getUrl(solrCollectionCode);
 
+		IndexMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		try {
+			SolrServer solr = SolrServerCache.getServer(url);
+			UpdateRequest request = new UpdateRequest();
+			for (String q : SolrQueryUtils.getTermsQueries("code", codes)) {
+				request.deleteByQuery(q);
+			}
+			commitPolicy.apply(request);
+			solrWriter.process(url, solr, request);
+			commitPolicy.afterBatch(solr);
+			commitPolicy.afterRun(solr);
+			if (priceActivationScheduler != null) {
+				priceActivationScheduler.cancel(url, codes);
+			}
+		} catch (Exception e) {
+			metrics.failed(IndexMetrics.Stage.SOLR_DELETE, e);
+			log.error(ExceptionUtils.getStackTrace(e));
+		} finally {
+			metrics.record(IndexMetrics.Stage.SOLR_DELETE, start);
+		}
 	}
 
 	@Override
-	public void delete(String codes, String solrCode, String status) {
-		// TODO Auto-generated method stub
+	public void delete(String code, String solrCode, String status) {
+		delete(Collections.singletonList(code), solrCode, status);
+	}
 
+	protected void addI18NFields(SolrInputDocument doc, FieldNames fieldNames, String field, String code,
+			String translationTag, String translationType, List<Locale> locales, Boolean multi) {
+		FieldNames.I18NFields fields = fieldNames.getI18NFields(field, multi);
+		doc.addField(fields.getCodeField(), code);
+
+		for (int i = 0; i < locales.size(); i++) {
+			String msg = getTranslationCache().getMessage(translationTag, translationType, code, locales.get(i));
+			doc.addField(fields.getLocaleField(i), msg);
+		}
 	}
 
 	protected void addI18NFields(SolrInputDocument doc, String shop, String field, String code, String translationTag,
@@ -259,7 +1205,7 @@ public class XIndexServiceImpl implements XIndexService {
 
 		for (Locale locale : locales) {
 			String langField = getLocaleField(field, locale, multi);
-			String msg = translationService.getMessage(translationTag, translationType, code, null, code, locale);
+			String msg = getTranslationCache().getMessage(translationTag, translationType, code, locale);
 			doc.addField(langField, msg);
 		}
 	}
@@ -291,4 +1237,245 @@ public class XIndexServiceImpl implements XIndexService {
 		return cal;
 	}
 
+	public TranslationService getTranslationService() {
+		return translationService;
+	}
+
+	public void setTranslationService(TranslationService translationService) {
+		this.translationService = translationService;
+	}
+
+	public InventoryService getInventoryService() {
+		return inventoryService;
+	}
+
+	public void setInventoryService(InventoryService inventoryService) {
+		this.inventoryService = inventoryService;
+	}
+
+	public InventoryLoader getInventoryLoader() {
+		if (inventoryLoader == null) {
+			synchronized (this) {
+				if (inventoryLoader == null) {
+					InventoryLoader loader = new InventoryLoader(inventoryService);
+					loader.setMetrics(getMetrics());
+					inventoryLoader = loader;
+				}
+			}
+		}
+		return inventoryLoader;
+	}
+
+	public void setInventoryLoader(InventoryLoader inventoryLoader) {
+		this.inventoryLoader = inventoryLoader;
+	}
+
+	public TranslationCache getTranslationCache() {
+		if (translationCache == null) {
+			synchronized (this) {
+				if (translationCache == null) {
+					TranslationCache cache = new TranslationCache(translationService);
+					cache.setDictionary(translationDictionary);
+					cache.setMetrics(getMetrics());
+					translationCache = cache;
+				}
+			}
+		}
+		return translationCache;
+	}
+
+	public void setTranslationCache(TranslationCache translationCache) {
+		this.translationCache = translationCache;
+	}
+
+	public TranslationDictionary getTranslationDictionary() {
+		return translationDictionary;
+	}
+
+	/**
+	 * @param translationDictionary
+	 *            memory mapped labels shared with the other indexers of the
+	 *            host, looked up before the translation service
+	 */
+	public void setTranslationDictionary(TranslationDictionary translationDictionary) {
+		this.translationDictionary = translationDictionary;
+	}
+
+	/**
+	 * @return the metrics of this service, registered in JMX as
+	 *         com.bakerbeach.market.index:type=IndexMetrics,name=&lt;metricsName&gt;
+	 *         unless set explicitly; further instances with the same name get
+	 *         #2, #3, ... appended
+	 */
+	public IndexMetrics getMetrics() {
+		if (metrics == null) {
+			synchronized (this) {
+				if (metrics == null) {
+					IndexMetrics m = new IndexMetrics();
+					m.register((metricsName != null) ? metricsName : getClass().getSimpleName());
+					registeredMetrics = m;
+					metrics = m;
+				}
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Unregisters the metrics this service registered in JMX; set as
+	 * destroy-method of the bean, so a redeploy does not leave them behind.
+	 */
+	public synchronized void shutdown() {
+		if (registeredMetrics != null) {
+			registeredMetrics.unregister();
+			registeredMetrics = null;
+		}
+	}
+
+	public void setMetrics(IndexMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public String getMetricsName() {
+		return metricsName;
+	}
+
+	/**
+	 * @param metricsName
+	 *            JMX name of the metrics, e.g. the shop; the class name if not
+	 *            set
+	 */
+	public void setMetricsName(String metricsName) {
+		this.metricsName = metricsName;
+	}
+
+	/**
+	 * @return the executor of the async calls, {@link IndexExecutors#getDefault()}
+	 *         unless set
+	 */
+	public Executor getAsyncExecutor() {
+		return (asyncExecutor != null) ? asyncExecutor : IndexExecutors.getDefault();
+	}
+
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * @return the policy of the context if it has one, the policy of this
+	 *         service otherwise
+	 */
+	protected CommitPolicy getCommitPolicy(IndexContext context) {
+		if (context instanceof IndexContextImpl && ((IndexContextImpl) context).getCommitPolicy() != null) {
+			return ((IndexContextImpl) context).getCommitPolicy();
+		}
+		return commitPolicy;
+	}
+
+	public SolrWriter getSolrWriter() {
+		return solrWriter;
+	}
+
+	/**
+	 * @param solrWriter
+	 *            retries, circuit breakers and dead letter spool of all solr
+	 *            updates of this service
+	 */
+	public void setSolrWriter(SolrWriter solrWriter) {
+		this.solrWriter = solrWriter;
+	}
+
+	public TimeSpanPlanner getTimeSpanPlanner() {
+		return timeSpanPlanner;
+	}
+
+	public void setTimeSpanPlanner(TimeSpanPlanner timeSpanPlanner) {
+		this.timeSpanPlanner = timeSpanPlanner;
+	}
+
+	public PriceActivationScheduler getPriceActivationScheduler() {
+		return priceActivationScheduler;
+	}
+
+	/**
+	 * @param priceActivationScheduler
+	 *            if set only the span in effect is indexed, the scheduler
+	 *            swaps in the upcoming ones when they start
+	 */
+	public void setPriceActivationScheduler(PriceActivationScheduler priceActivationScheduler) {
+		this.priceActivationScheduler = priceActivationScheduler;
+	}
+
+	public CommitPolicy getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	public void setCommitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+	}
+
+	public CollectionAdmin getCollectionAdmin() {
+		return collectionAdmin;
+	}
+
+	public void setCollectionAdmin(CollectionAdmin collectionAdmin) {
+		this.collectionAdmin = collectionAdmin;
+	}
+
+	public boolean isOptimizeOnRebuild() {
+		return optimizeOnRebuild;
+	}
+
+	public void setOptimizeOnRebuild(boolean optimizeOnRebuild) {
+		this.optimizeOnRebuild = optimizeOnRebuild;
+	}
+
+	public int getMaxRebuildFailures() {
+		return maxRebuildFailures;
+	}
+
+	public void setMaxRebuildFailures(int maxRebuildFailures) {
+		this.maxRebuildFailures = maxRebuildFailures;
+	}
+
+	public RunJournal getRunJournal() {
+		return runJournal;
+	}
+
+	public void setRunJournal(RunJournal runJournal) {
+		this.runJournal = runJournal;
+	}
+
+	public DeltaIndexStore getDeltaIndexStore() {
+		return deltaIndexStore;
+	}
+
+	public void setDeltaIndexStore(DeltaIndexStore deltaIndexStore) {
+		this.deltaIndexStore = deltaIndexStore;
+	}
+
+	public int getIndexWorkers() {
+		return indexWorkers;
+	}
+
+	public void setIndexWorkers(int indexWorkers) {
+		this.indexWorkers = indexWorkers;
+	}
+
+	public int getIndexQueueCapacity() {
+		return indexQueueCapacity;
+	}
+
+	public void setIndexQueueCapacity(int indexQueueCapacity) {
+		this.indexQueueCapacity = indexQueueCapacity;
+	}
+
+	public int getIndexBatchSize() {
+		return indexBatchSize;
+	}
+
+	public void setIndexBatchSize(int indexBatchSize) {
+		this.indexBatchSize = indexBatchSize;
+	}
+
 }
@@ -0,0 +1,205 @@
+package com.bakerbeach.market.index.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.bakerbeach.market.core.api.model.AssetGroup;
+
+/**
+ * Dynamic solr field names computed once per combination of locales,
+ * currencies and price groups and shared by all documents, so building a
+ * document does not create new strings for its field names.
+ */
+public class FieldNames {
+	private static final int ASSET_FIELDS = 32;
+
+	private static final ConcurrentMap<List<Object>, FieldNames> registry = new ConcurrentHashMap<List<Object>, FieldNames>();
+
+	private static final ConcurrentMap<String, String> logoFields = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<String, String> tagFields = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<Currency, ConcurrentMap<String, ConcurrentMap<String, String>>> tagPriceFields = new ConcurrentHashMap<Currency, ConcurrentMap<String, ConcurrentMap<String, String>>>();
+	private static final String[] listingAssetPathFields = new String[ASSET_FIELDS];
+	private static final String[] listingAssetTypeFields = new String[ASSET_FIELDS];
+
+	static {
+		for (int i = 0; i < ASSET_FIELDS; i++) {
+			listingAssetPathFields[i] = getListingAssetField(i, "path");
+			listingAssetTypeFields[i] = getListingAssetField(i, "type");
+		}
+	}
+
+	private final List<Locale> locales;
+	private final String[][] priceFields;
+	private final String[][] stdPriceFields;
+	private final String[] moqFields;
+	private final String[] availableFields;
+	private final ConcurrentMap<String, I18NFields> singleI18NFields = new ConcurrentHashMap<String, I18NFields>();
+	private final ConcurrentMap<String, I18NFields> multiI18NFields = new ConcurrentHashMap<String, I18NFields>();
+
+	private FieldNames(List<Locale> locales, List<Currency> currencies, List<String> groups) {
+		this.locales = locales;
+		this.priceFields = new String[currencies.size()][groups.size()];
+		this.stdPriceFields = new String[currencies.size()][groups.size()];
+		for (int c = 0; c < currencies.size(); c++) {
+			for (int g = 0; g < groups.size(); g++) {
+				String prefix = new StringBuilder(currencies.get(c).getCurrencyCode()).append("_")
+						.append(groups.get(g)).toString();
+				priceFields[c][g] = (prefix + "_price").toLowerCase();
+				stdPriceFields[c][g] = (prefix + "_std_price").toLowerCase();
+			}
+		}
+
+		this.moqFields = new String[groups.size()];
+		this.availableFields = new String[groups.size()];
+		for (int g = 0; g < groups.size(); g++) {
+			moqFields[g] = getMoqField(groups.get(g));
+			availableFields[g] = getAvailableField(groups.get(g));
+		}
+	}
+
+	public static FieldNames get(List<Locale> locales, List<Currency> currencies, List<String> groups) {
+		FieldNames fieldNames = registry.get(Arrays.<Object> asList(locales, currencies, groups));
+		if (fieldNames == null) {
+			List<Locale> l = new ArrayList<Locale>(locales);
+			List<Currency> c = new ArrayList<Currency>(currencies);
+			List<String> g = new ArrayList<String>(groups);
+			fieldNames = registry.computeIfAbsent(Arrays.<Object> asList(l, c, g), k -> new FieldNames(l, c, g));
+		}
+		return fieldNames;
+	}
+
+	/**
+	 * @return &lt;currency&gt;_&lt;group&gt;_price by position in the context lists
+	 */
+	public String getPriceField(int currency, int group) {
+		return priceFields[currency][group];
+	}
+
+	/**
+	 * @return &lt;currency&gt;_&lt;group&gt;_std_price by position in the context
+	 *         lists
+	 */
+	public String getStdPriceField(int currency, int group) {
+		return stdPriceFields[currency][group];
+	}
+
+	public String getMoqField(int group) {
+		return moqFields[group];
+	}
+
+	public String getAvailableField(int group) {
+		return availableFields[group];
+	}
+
+	/**
+	 * @return &lt;group&gt;_moq
+	 */
+	public static String getMoqField(String group) {
+		return (group + "_moq").toLowerCase();
+	}
+
+	/**
+	 * @return &lt;group&gt;_available
+	 */
+	public static String getAvailableField(String group) {
+		return (group + "_available").toLowerCase();
+	}
+
+	public I18NFields getI18NFields(String field, boolean multi) {
+		ConcurrentMap<String, I18NFields> i18nFields = multi ? multiI18NFields : singleI18NFields;
+		I18NFields fields = i18nFields.get(field);
+		if (fields == null) {
+			fields = i18nFields.computeIfAbsent(field, k -> new I18NFields(k, multi, locales));
+		}
+		return fields;
+	}
+
+	public static String getLogoField(String key) {
+		String field = logoFields.get(key);
+		if (field == null) {
+			field = logoFields.computeIfAbsent(key,
+					k -> new StringBuilder("logos_").append(k).append("_codes").toString().toLowerCase());
+		}
+		return field;
+	}
+
+	public static String getTagField(String key) {
+		String field = tagFields.get(key);
+		if (field == null) {
+			field = tagFields.computeIfAbsent(key,
+					k -> new StringBuilder("tags_").append(k).append("_codes").toString().toLowerCase());
+		}
+		return field;
+	}
+
+	/**
+	 * @return &lt;currency&gt;_&lt;group&gt;_&lt;tag&gt;_price
+	 */
+	public static String getPriceField(Currency currency, String group, String tag) {
+		ConcurrentMap<String, ConcurrentMap<String, String>> byGroup = tagPriceFields.get(currency);
+		if (byGroup == null) {
+			byGroup = tagPriceFields.computeIfAbsent(currency,
+					k -> new ConcurrentHashMap<String, ConcurrentMap<String, String>>());
+		}
+		String groupKey = String.valueOf(group);
+		ConcurrentMap<String, String> byTag = byGroup.get(groupKey);
+		if (byTag == null) {
+			byTag = byGroup.computeIfAbsent(groupKey, k -> new ConcurrentHashMap<String, String>());
+		}
+		String tagKey = String.valueOf(tag);
+		String field = byTag.get(tagKey);
+		if (field == null) {
+			field = byTag.computeIfAbsent(tagKey, k -> new StringBuilder(String.valueOf(currency)).append("_")
+					.append(group).append("_").append(tag).append("_price").toString().toLowerCase());
+		}
+		return field;
+	}
+
+	public static String getListingAssetPathField(int index) {
+		return (index < ASSET_FIELDS) ? listingAssetPathFields[index] : getListingAssetField(index, "path");
+	}
+
+	public static String getListingAssetTypeField(int index) {
+		return (index < ASSET_FIELDS) ? listingAssetTypeFields[index] : getListingAssetField(index, "type");
+	}
+
+	private static String getListingAssetField(int index, String suffix) {
+		return new StringBuilder("listing_").append(AssetGroup.SIZE_MEDIUM).append("_").append(index)
+				.append("_asset_").append(suffix).toString().toLowerCase();
+	}
+
+	/**
+	 * Code field and one field per locale of an i18n field, e.g. brand_code,
+	 * brand_de, brand_en or category_codes, category_des, category_ens.
+	 */
+	public static class I18NFields {
+		private final String codeField;
+		private final String[] localeFields;
+
+		I18NFields(String field, boolean multi, List<Locale> locales) {
+			this.codeField = field + (multi ? "_codes" : "_code");
+			this.localeFields = new String[locales.size()];
+			for (int i = 0; i < locales.size(); i++) {
+				localeFields[i] = new StringBuilder(field).append("_").append(locales.get(i).getLanguage())
+						.append(multi ? "s" : "").toString();
+			}
+		}
+
+		public String getCodeField() {
+			return codeField;
+		}
+
+		/**
+		 * @return field of the locale at the given position of the context list
+		 */
+		public String getLocaleField(int locale) {
+			return localeFields[locale];
+		}
+	}
+
+}
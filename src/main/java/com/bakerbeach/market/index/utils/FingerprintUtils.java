@@ -0,0 +1,76 @@
+package com.bakerbeach.market.index.utils;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * 64 bit FNV-1a content fingerprints of solr documents. Field order does not
+ * matter, values are hashed in their string form.
+ */
+public class FingerprintUtils {
+	private static final long OFFSET = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	public static long getFingerprint(List<SolrInputDocument> docs, Set<String> ignoredFields) {
+		long hash = OFFSET;
+		for (SolrInputDocument doc : docs) {
+			for (String name : new TreeSet<String>(doc.getFieldNames())) {
+				if (ignoredFields.contains(name)) {
+					continue;
+				}
+				hash = hash(hash, name);
+				hash = hash(hash, doc.getField(name).getValue());
+			}
+			hash = hash(hash, '\u001e');
+		}
+		return hash;
+	}
+
+	public static long getFingerprint(Object... values) {
+		long hash = OFFSET;
+		for (Object value : values) {
+			hash = hash(hash, value);
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, Object value) {
+		if (value == null) {
+			return hash(hash, '\u0000');
+		} else if (value instanceof Date) {
+			return hash(hash, Long.toString(((Date) value).getTime()));
+		} else if (value instanceof Collection) {
+			for (Object item : (Collection<?>) value) {
+				hash = hash(hash, item);
+			}
+			return hash(hash, '\u001d');
+		} else if (value instanceof Map) {
+			for (Map.Entry<?, ?> e : new TreeMap<Object, Object>((Map<?, ?>) value).entrySet()) {
+				hash = hash(hash, e.getKey());
+				hash = hash(hash, e.getValue());
+			}
+			return hash(hash, '\u001d');
+		}
+		return hash(hash, value.toString());
+	}
+
+	private static long hash(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = hash(hash, value.charAt(i));
+		}
+		return hash(hash, '\u001f');
+	}
+
+	private static long hash(long hash, char c) {
+		hash ^= c;
+		return hash * PRIME;
+	}
+
+}
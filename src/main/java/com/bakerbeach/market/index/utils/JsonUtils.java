@@ -0,0 +1,43 @@
+package com.bakerbeach.market.index.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+
+/**
+ * Shared jackson mapper. ObjectMapper and ObjectWriter are thread safe once
+ * configured, so one instance serves all indexing threads; each thread
+ * streams into its own reused buffer.
+ */
+public class JsonUtils {
+	private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final ObjectWriter writer = mapper.writer();
+
+	private static final ThreadLocal<StringWriter> buffers = ThreadLocal.withInitial(() -> new StringWriter(4096));
+
+	public static ObjectMapper getMapper() {
+		return mapper;
+	}
+
+	public static String toJson(Object value) throws IOException {
+		StringWriter buffer = buffers.get();
+		StringBuffer sb = buffer.getBuffer();
+		sb.setLength(0);
+		try {
+			writer.writeValue(buffer, value);
+			return sb.toString();
+		} finally {
+			if (sb.capacity() > MAX_RETAINED_BUFFER) {
+				// do not keep the buffer of an exceptionally large value per thread
+				buffers.remove();
+			} else {
+				sb.setLength(0);
+			}
+		}
+	}
+
+}
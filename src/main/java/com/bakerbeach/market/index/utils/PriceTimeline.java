@@ -0,0 +1,218 @@
+package com.bakerbeach.market.index.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bakerbeach.market.core.api.model.ScaledPrice;
+import com.bakerbeach.market.xcatalog.model.Price;
+
+/**
+ * Prices of one product indexed by currency, group and tag, each series sorted
+ * by start date. Built once per product and shared by all time span
+ * documents; point in time lookups are binary searches instead of scans over
+ * the whole price list.
+ */
+public class PriceTimeline {
+	private static final String NO_TAG = null;
+	private static final String DEFAULT_GROUP = "default";
+
+	private final Map<Currency, Map<String, Map<String, Series>>> index = new HashMap<Currency, Map<String, Map<String, Series>>>();
+	private final List<Series> series = new ArrayList<Series>();
+
+	private PriceTimeline() {
+	}
+
+	public static PriceTimeline ofScaledPrices(List<ScaledPrice> prices) {
+		Map<List<Object>, List<Row>> rows = new LinkedHashMap<List<Object>, List<Row>>();
+		for (ScaledPrice p : prices) {
+			rows.computeIfAbsent(Arrays.<Object> asList(p.getCurrency(), p.getGroup(), NO_TAG),
+					k -> new ArrayList<Row>()).add(new Row(p.getStart(), p.getValue()));
+		}
+		return build(rows);
+	}
+
+	public static PriceTimeline ofPrices(List<Price> prices) {
+		Map<List<Object>, List<Row>> rows = new LinkedHashMap<List<Object>, List<Row>>();
+		for (Price p : prices) {
+			rows.computeIfAbsent(Arrays.<Object> asList(p.getCurrency(), p.getGroup(), p.getTag()),
+					k -> new ArrayList<Row>()).add(new Row(p.getStart(), p.getValue()));
+		}
+		return build(rows);
+	}
+
+	/**
+	 * Prices of product i of a batch snapshot, read off its columns.
+	 */
+	public static PriceTimeline ofSnapshot(ProductSnapshot snapshot, int i) {
+		Map<List<Object>, List<Row>> rows = new LinkedHashMap<List<Object>, List<Row>>();
+		for (int k = 0, n = snapshot.getPriceCount(i); k < n; k++) {
+			Long start = snapshot.hasPriceStart(i, k) ? snapshot.getPriceStart(i, k) : null;
+			rows.computeIfAbsent(
+					Arrays.<Object> asList(snapshot.getPriceCurrency(i, k), snapshot.getPriceGroup(i, k),
+							snapshot.getPriceTag(i, k)),
+					key -> new ArrayList<Row>()).add(new Row(start, snapshot.getPriceValue(i, k)));
+		}
+		return build(rows);
+	}
+
+	private static PriceTimeline build(Map<List<Object>, List<Row>> rows) {
+		PriceTimeline timeline = new PriceTimeline();
+		for (Map.Entry<List<Object>, List<Row>> e : rows.entrySet()) {
+			Currency currency = (Currency) e.getKey().get(0);
+			String group = (String) e.getKey().get(1);
+			String tag = (String) e.getKey().get(2);
+
+			Series s = new Series(currency, group, tag, e.getValue());
+			timeline.series.add(s);
+			timeline.index.computeIfAbsent(currency, k -> new HashMap<String, Map<String, Series>>())
+					.computeIfAbsent(group, k -> new HashMap<String, Series>()).put(tag, s);
+		}
+		return timeline;
+	}
+
+	/**
+	 * Same result as {@link PriceUtils#getPrice(List, Currency, String, Date)}:
+	 * the latest price of the group started at the given date, falling back
+	 * to the "default" group.
+	 */
+	public BigDecimal getPrice(Currency currency, String group, Date date) {
+		BigDecimal value = getPrice(currency, group, NO_TAG, date);
+		return (value != null) ? value : getPrice(currency, DEFAULT_GROUP, NO_TAG, date);
+	}
+
+	/**
+	 * Same result as
+	 * {@link PriceUtils#getStdPrice(List, Currency, String, Date)}: the last
+	 * listed price of the group regardless of its start, falling back to the
+	 * "default" group. Null if neither exists.
+	 */
+	public BigDecimal getStdPrice(Currency currency, String group) {
+		Series s = getSeries(currency, group, NO_TAG);
+		if (s == null) {
+			s = getSeries(currency, DEFAULT_GROUP, NO_TAG);
+		}
+		return (s != null) ? s.getLast() : null;
+	}
+
+	public BigDecimal getPrice(Currency currency, String group, String tag, Date date) {
+		Series s = getSeries(currency, group, tag);
+		return (s != null) ? s.getValue(date) : null;
+	}
+
+	public Series getSeries(Currency currency, String group, String tag) {
+		Map<String, Map<String, Series>> byGroup = index.get(currency);
+		if (byGroup == null) {
+			return null;
+		}
+		Map<String, Series> byTag = byGroup.get(group);
+		return (byTag != null) ? byTag.get(tag) : null;
+	}
+
+	public Collection<Series> getSeries() {
+		return Collections.unmodifiableList(series);
+	}
+
+	public static class Series {
+		private final Currency currency;
+		private final String group;
+		private final String tag;
+		private final String fieldName;
+		private final long[] starts;
+		private final BigDecimal[] values;
+		private final BigDecimal last;
+
+		Series(Currency currency, String group, String tag, List<Row> rows) {
+			this.currency = currency;
+			this.group = group;
+			this.tag = tag;
+			this.fieldName = FieldNames.getPriceField(currency, group, tag);
+			this.last = rows.get(rows.size() - 1).value;
+
+			// stable sort keeps the first listed of equal starts in front
+			List<Row> dated = new ArrayList<Row>(rows.size());
+			for (Row row : rows) {
+				if (row.start != null) {
+					dated.add(row);
+				}
+			}
+			Collections.sort(dated, Comparator.comparingLong(row -> row.start));
+
+			this.starts = new long[dated.size()];
+			this.values = new BigDecimal[dated.size()];
+			for (int i = 0; i < dated.size(); i++) {
+				starts[i] = dated.get(i).start;
+				values[i] = dated.get(i).value;
+			}
+		}
+
+		/**
+		 * @return value of the price with the latest start not after the given
+		 *         date, the first listed one on equal starts
+		 */
+		public BigDecimal getValue(Date date) {
+			int i = Arrays.binarySearch(starts, date.getTime());
+			if (i < 0) {
+				i = -i - 2;
+			}
+			if (i < 0) {
+				return null;
+			}
+			while (i > 0 && starts[i - 1] == starts[i]) {
+				i--;
+			}
+			return values[i];
+		}
+
+		public BigDecimal getLast() {
+			return last;
+		}
+
+		public Currency getCurrency() {
+			return currency;
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * @return &lt;currency&gt;_&lt;group&gt;_&lt;tag&gt;_price, lower case
+		 */
+		public String getFieldName() {
+			return fieldName;
+		}
+
+		public long[] getStarts() {
+			return starts;
+		}
+	}
+
+	private static class Row {
+		private final Long start;
+		private final BigDecimal value;
+
+		Row(Date start, BigDecimal value) {
+			this((start != null) ? start.getTime() : null, value);
+		}
+
+		Row(Long start, BigDecimal value) {
+			this.start = start;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,588 @@
+package com.bakerbeach.market.index.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bakerbeach.market.xcatalog.model.Price;
+import com.bakerbeach.market.xcatalog.model.Product;
+
+/**
+ * Columnar copy of a batch of products, taken once per batch so document
+ * building reads primitive arrays instead of getters and maps. Strings are
+ * dictionary encoded per batch and stored as int ids, tags and logos as id
+ * ranges, prices as unscaled long + scale with epoch millis starts. Assets
+ * are kept as their json.
+ */
+public class ProductSnapshot {
+	protected static final Logger log = LoggerFactory.getLogger(ProductSnapshot.class);
+
+	private static final int NULL = -1;
+	private static final int NO_SCALE = Integer.MIN_VALUE;
+	private static final long NO_START = Long.MIN_VALUE;
+
+	private final int size;
+	private final String[] dictionary;
+
+	private final int[] codes;
+	private final int[] types;
+	private final int[] units;
+	private final int[] primaryGroups;
+	private final int[] secondaryGroups;
+	private final int[] brands;
+	private final int[] names;
+	private final byte[] indexed;
+
+	// two base prices per product
+	private final long[] basePriceUnscaled;
+	private final int[] basePriceScales;
+	private final int[] basePriceUnits;
+
+	private final int[] categoryOffsets;
+	private final int[] categories;
+
+	private final MapColumn logos;
+	private final MapColumn tags;
+
+	private final int[] priceOffsets;
+	private final int[] priceCurrencies;
+	private final int[] priceGroups;
+	private final int[] priceTags;
+	private final long[] priceStarts;
+	private final long[] priceUnscaled;
+	private final int[] priceScales;
+	// values that do not fit an unscaled long, by price row
+	private final Map<Integer, BigDecimal> largePrices;
+
+	private final String[] assetsJson;
+
+	private ProductSnapshot(Builder b) {
+		this.size = b.size;
+		this.dictionary = b.dictionary.toArray(new String[b.dictionary.size()]);
+		this.codes = b.codes.toArray();
+		this.types = b.types.toArray();
+		this.units = b.units.toArray();
+		this.primaryGroups = b.primaryGroups.toArray();
+		this.secondaryGroups = b.secondaryGroups.toArray();
+		this.brands = b.brands.toArray();
+		this.names = b.names.toArray();
+		this.indexed = Arrays.copyOf(b.indexed, b.size);
+		this.basePriceUnscaled = b.basePriceUnscaled.toArray();
+		this.basePriceScales = b.basePriceScales.toArray();
+		this.basePriceUnits = b.basePriceUnits.toArray();
+		this.categoryOffsets = b.categoryOffsets.toArray();
+		this.categories = b.categories.toArray();
+		this.logos = b.logos.build();
+		this.tags = b.tags.build();
+		this.priceOffsets = b.priceOffsets.toArray();
+		this.priceCurrencies = b.priceCurrencies.toArray();
+		this.priceGroups = b.priceGroups.toArray();
+		this.priceTags = b.priceTags.toArray();
+		this.priceStarts = b.priceStarts.toArray();
+		this.priceUnscaled = b.priceUnscaled.toArray();
+		this.priceScales = b.priceScales.toArray();
+		this.largePrices = b.largePrices;
+		this.assetsJson = b.assetsJson.toArray(new String[b.assetsJson.size()]);
+	}
+
+	public static ProductSnapshot of(List<Product> products) {
+		Builder builder = new Builder(products.size());
+		for (Product product : products) {
+			builder.add(product);
+		}
+		return new ProductSnapshot(builder);
+	}
+
+	/**
+	 * @return the products as rows of snapshots of batchSize products, each
+	 *         taken when iteration reaches its first product
+	 */
+	public static Iterable<Row> rows(Iterable<Product> products, int batchSize) {
+		return () -> new Iterator<Row>() {
+			private final Iterator<Product> source = products.iterator();
+			private ProductSnapshot snapshot;
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return (snapshot != null && next < snapshot.size()) || source.hasNext();
+			}
+
+			@Override
+			public Row next() {
+				if (snapshot == null || next >= snapshot.size()) {
+					if (!source.hasNext()) {
+						throw new NoSuchElementException();
+					}
+					List<Product> batch = new ArrayList<Product>(batchSize);
+					while (batch.size() < batchSize && source.hasNext()) {
+						batch.add(source.next());
+					}
+					snapshot = of(batch);
+					next = 0;
+				}
+				return snapshot.get(next++);
+			}
+		};
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Row get(int i) {
+		return new Row(this, i);
+	}
+
+	public String getCode(int i) {
+		return lookup(codes[i]);
+	}
+
+	/**
+	 * @return name of the type enum
+	 */
+	public String getType(int i) {
+		return lookup(types[i]);
+	}
+
+	/**
+	 * @return name of the unit enum
+	 */
+	public String getUnit(int i) {
+		return lookup(units[i]);
+	}
+
+	public String getPrimaryGroup(int i) {
+		return lookup(primaryGroups[i]);
+	}
+
+	public String getSecondaryGroup(int i) {
+		return lookup(secondaryGroups[i]);
+	}
+
+	public String getBrand(int i) {
+		return lookup(brands[i]);
+	}
+
+	public String getName(int i) {
+		return lookup(names[i]);
+	}
+
+	public Boolean isIndexed(int i) {
+		return (indexed[i] == NULL) ? null : indexed[i] == 1;
+	}
+
+	/**
+	 * @param n
+	 *            1 or 2
+	 */
+	public BigDecimal getBasePriceDivisor(int i, int n) {
+		int k = 2 * i + n - 1;
+		return (basePriceScales[k] == NO_SCALE) ? null : BigDecimal.valueOf(basePriceUnscaled[k], basePriceScales[k]);
+	}
+
+	/**
+	 * @param n
+	 *            1 or 2
+	 */
+	public String getBasePriceUnit(int i, int n) {
+		return lookup(basePriceUnits[2 * i + n - 1]);
+	}
+
+	public int getCategoryCount(int i) {
+		return categoryOffsets[i + 1] - categoryOffsets[i];
+	}
+
+	public String getCategory(int i, int k) {
+		return lookup(categories[categoryOffsets[i] + k]);
+	}
+
+	public int getLogoCount(int i) {
+		return logos.getCount(i);
+	}
+
+	public String getLogoKey(int i, int k) {
+		return logos.getKey(dictionary, i, k);
+	}
+
+	/**
+	 * @return a list for logos given as a collection, a string otherwise
+	 */
+	public Object getLogoValue(int i, int k) {
+		return logos.getValue(dictionary, i, k);
+	}
+
+	public int getTagCount(int i) {
+		return tags.getCount(i);
+	}
+
+	public String getTagKey(int i, int k) {
+		return tags.getKey(dictionary, i, k);
+	}
+
+	/**
+	 * @return a list for tags given as a collection, a string otherwise
+	 */
+	public Object getTagValue(int i, int k) {
+		return tags.getValue(dictionary, i, k);
+	}
+
+	public int getPriceCount(int i) {
+		return priceOffsets[i + 1] - priceOffsets[i];
+	}
+
+	public Currency getPriceCurrency(int i, int k) {
+		String code = lookup(priceCurrencies[priceOffsets[i] + k]);
+		return (code != null) ? Currency.getInstance(code) : null;
+	}
+
+	public String getPriceGroup(int i, int k) {
+		return lookup(priceGroups[priceOffsets[i] + k]);
+	}
+
+	public String getPriceTag(int i, int k) {
+		return lookup(priceTags[priceOffsets[i] + k]);
+	}
+
+	/**
+	 * @return epoch millis of the start or {@link Long#MIN_VALUE} for prices
+	 *         without one
+	 */
+	public long getPriceStart(int i, int k) {
+		return priceStarts[priceOffsets[i] + k];
+	}
+
+	public boolean hasPriceStart(int i, int k) {
+		return priceStarts[priceOffsets[i] + k] != NO_START;
+	}
+
+	public BigDecimal getPriceValue(int i, int k) {
+		int row = priceOffsets[i] + k;
+		if (priceScales[row] == NO_SCALE) {
+			return largePrices.get(row);
+		}
+		return BigDecimal.valueOf(priceUnscaled[row], priceScales[row]);
+	}
+
+	/**
+	 * @return the assets as json, null if they could not be written
+	 */
+	public String getAssetsJson(int i) {
+		return assetsJson[i];
+	}
+
+	private String lookup(int id) {
+		return lookup(dictionary, id);
+	}
+
+	private static String lookup(String[] dictionary, int id) {
+		return (id == NULL) ? null : dictionary[id];
+	}
+
+	/**
+	 * One product of a snapshot, the item of the index pipelines.
+	 */
+	public static class Row {
+		private final ProductSnapshot snapshot;
+		private final int index;
+
+		Row(ProductSnapshot snapshot, int index) {
+			this.snapshot = snapshot;
+			this.index = index;
+		}
+
+		public ProductSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public String getCode() {
+			return snapshot.getCode(index);
+		}
+
+		public Boolean isIndexed() {
+			return snapshot.isIndexed(index);
+		}
+	}
+
+	/**
+	 * String to list of strings maps of all products: entries per product by
+	 * offset, values per entry by offset.
+	 */
+	private static class MapColumn {
+		private final int[] offsets;
+		private final int[] keys;
+		private final int[] valueOffsets;
+		private final int[] values;
+		private final boolean[] multi;
+
+		MapColumn(int[] offsets, int[] keys, int[] valueOffsets, int[] values, boolean[] multi) {
+			this.offsets = offsets;
+			this.keys = keys;
+			this.valueOffsets = valueOffsets;
+			this.values = values;
+			this.multi = multi;
+		}
+
+		int getCount(int i) {
+			return offsets[i + 1] - offsets[i];
+		}
+
+		String getKey(String[] dictionary, int i, int k) {
+			return dictionary[keys[offsets[i] + k]];
+		}
+
+		Object getValue(String[] dictionary, int i, int k) {
+			int entry = offsets[i] + k;
+			int from = valueOffsets[entry];
+			int to = valueOffsets[entry + 1];
+			if (!multi[entry]) {
+				return (from < to) ? lookup(dictionary, values[from]) : null;
+			}
+			List<String> list = new ArrayList<String>(to - from);
+			for (int v = from; v < to; v++) {
+				list.add(lookup(dictionary, values[v]));
+			}
+			return list;
+		}
+	}
+
+	private static class Dictionary {
+		private final List<String> values = new ArrayList<String>();
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		int id(Object value) {
+			if (value == null) {
+				return NULL;
+			}
+			String s = value.toString();
+			Integer id = ids.get(s);
+			if (id == null) {
+				id = values.size();
+				values.add(s);
+				ids.put(s, id);
+			}
+			return id;
+		}
+
+		int size() {
+			return values.size();
+		}
+
+		String[] toArray(String[] a) {
+			return values.toArray(a);
+		}
+	}
+
+	private static class MapColumnBuilder {
+		private final Dictionary dictionary;
+		private final IntArray offsets = new IntArray();
+		private final IntArray keys = new IntArray();
+		private final IntArray valueOffsets = new IntArray();
+		private final IntArray values = new IntArray();
+		private boolean[] multi = new boolean[16];
+
+		MapColumnBuilder(Dictionary dictionary) {
+			this.dictionary = dictionary;
+			offsets.add(0);
+			valueOffsets.add(0);
+		}
+
+		void add(Map<String, ?> map) {
+			if (map != null) {
+				for (Map.Entry<String, ?> e : map.entrySet()) {
+					int entry = keys.size();
+					keys.add(dictionary.id(e.getKey()));
+					if (entry == multi.length) {
+						multi = Arrays.copyOf(multi, entry * 2);
+					}
+					if (e.getValue() instanceof Collection) {
+						multi[entry] = true;
+						for (Object value : (Collection<?>) e.getValue()) {
+							values.add(dictionary.id(value));
+						}
+					} else if (e.getValue() != null) {
+						values.add(dictionary.id(e.getValue()));
+					}
+					valueOffsets.add(values.size());
+				}
+			}
+			offsets.add(keys.size());
+		}
+
+		MapColumn build() {
+			return new MapColumn(offsets.toArray(), keys.toArray(), valueOffsets.toArray(),
+					values.toArray(), Arrays.copyOf(multi, keys.size()));
+		}
+	}
+
+	private static class Builder {
+		private final Dictionary dictionary = new Dictionary();
+		private int size;
+		private final IntArray codes = new IntArray();
+		private final IntArray types = new IntArray();
+		private final IntArray units = new IntArray();
+		private final IntArray primaryGroups = new IntArray();
+		private final IntArray secondaryGroups = new IntArray();
+		private final IntArray brands = new IntArray();
+		private final IntArray names = new IntArray();
+		private byte[] indexed;
+		private final LongArray basePriceUnscaled = new LongArray();
+		private final IntArray basePriceScales = new IntArray();
+		private final IntArray basePriceUnits = new IntArray();
+		private final IntArray categoryOffsets = new IntArray();
+		private final IntArray categories = new IntArray();
+		private final MapColumnBuilder logos = new MapColumnBuilder(dictionary);
+		private final MapColumnBuilder tags = new MapColumnBuilder(dictionary);
+		private final IntArray priceOffsets = new IntArray();
+		private final IntArray priceCurrencies = new IntArray();
+		private final IntArray priceGroups = new IntArray();
+		private final IntArray priceTags = new IntArray();
+		private final LongArray priceStarts = new LongArray();
+		private final LongArray priceUnscaled = new LongArray();
+		private final IntArray priceScales = new IntArray();
+		private final Map<Integer, BigDecimal> largePrices = new HashMap<Integer, BigDecimal>();
+		private final List<String> assetsJson = new ArrayList<String>();
+
+		Builder(int capacity) {
+			indexed = new byte[Math.max(capacity, 1)];
+			categoryOffsets.add(0);
+			priceOffsets.add(0);
+		}
+
+		void add(Product product) {
+			codes.add(dictionary.id(product.getCode()));
+			types.add(dictionary.id((product.getType() != null) ? product.getType().name() : null));
+			units.add(dictionary.id((product.getUnit() != null) ? product.getUnit().name() : null));
+			primaryGroups.add(dictionary.id(product.getPrimaryGroup()));
+			secondaryGroups.add(dictionary.id(product.getSecondaryGroup()));
+			brands.add(dictionary.id(product.getBrand()));
+			names.add(dictionary.id(product.getName()));
+			if (size == indexed.length) {
+				indexed = Arrays.copyOf(indexed, size * 2);
+			}
+			Boolean isIndexed = product.isIndexed();
+			indexed[size] = (isIndexed == null) ? NULL : (byte) (isIndexed ? 1 : 0);
+
+			addBasePrice(product.getBasePrice1Divisor(), product.getBasePrice1Unit());
+			addBasePrice(product.getBasePrice2Divisor(), product.getBasePrice2Unit());
+
+			if (product.getCategories() != null) {
+				for (String category : product.getCategories()) {
+					categories.add(dictionary.id(category));
+				}
+			}
+			categoryOffsets.add(categories.size());
+
+			logos.add(product.getLogos());
+			tags.add(product.getTags());
+
+			if (product.getPrices() != null) {
+				for (Price price : product.getPrices()) {
+					priceCurrencies.add(dictionary.id(
+							(price.getCurrency() != null) ? price.getCurrency().getCurrencyCode() : null));
+					priceGroups.add(dictionary.id(price.getGroup()));
+					priceTags.add(dictionary.id(price.getTag()));
+					priceStarts.add((price.getStart() != null) ? price.getStart().getTime() : NO_START);
+					addPriceValue(price.getValue());
+				}
+			}
+			priceOffsets.add(priceStarts.size());
+
+			String json = null;
+			try {
+				json = JsonUtils.toJson(product.getAssets());
+			} catch (Exception e) {
+				log.error(String.format("error while writing assets on %s", product.getCode()));
+			}
+			assetsJson.add(json);
+
+			size++;
+		}
+
+		private void addBasePrice(BigDecimal divisor, String unit) {
+			if (divisor != null && fitsLong(divisor)) {
+				basePriceUnscaled.add(divisor.unscaledValue().longValue());
+				basePriceScales.add(divisor.scale());
+			} else {
+				// divisors beyond a long are no sensible base price
+				basePriceUnscaled.add(0);
+				basePriceScales.add(NO_SCALE);
+			}
+			basePriceUnits.add(dictionary.id(unit));
+		}
+
+		private void addPriceValue(BigDecimal value) {
+			if (value != null && fitsLong(value)) {
+				priceUnscaled.add(value.unscaledValue().longValue());
+				priceScales.add(value.scale());
+			} else {
+				if (value != null) {
+					largePrices.put(priceScales.size(), value);
+				}
+				priceUnscaled.add(0);
+				priceScales.add(NO_SCALE);
+			}
+		}
+
+		private static boolean fitsLong(BigDecimal value) {
+			BigInteger unscaled = value.unscaledValue();
+			return unscaled.bitLength() < 64;
+		}
+	}
+
+	private static class IntArray {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static class LongArray {
+		private long[] values = new long[16];
+		private int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
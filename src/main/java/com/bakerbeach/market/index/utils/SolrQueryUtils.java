@@ -0,0 +1,179 @@
+package com.bakerbeach.market.index.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+public class SolrQueryUtils {
+	// stay below solr's default maxBooleanClauses (1024)
+	public static final int MAX_CLAUSES = 1000;
+
+	public static String getTermsQuery(String field, Collection<String> values) {
+		StringBuilder q = new StringBuilder(field).append(":(");
+		appendTerms(q, values);
+		return q.append(")").toString();
+	}
+
+	public static List<String> getTermsQueries(String field, List<String> values) {
+		List<String> queries = new ArrayList<String>();
+		for (int i = 0; i < values.size(); i += MAX_CLAUSES) {
+			queries.add(getTermsQuery(field, values.subList(i, Math.min(values.size(), i + MAX_CLAUSES))));
+		}
+		return queries;
+	}
+
+	/**
+	 * Queries deleting every document of the given keys except the ids that
+	 * are about to be (re)written, so a delete and an add of the same key can
+	 * travel in one update request regardless of the order solr applies them.
+	 */
+	public static List<String> getReplaceQueries(String keyField, String idField, Map<String, List<String>> idsByKey) {
+		List<String> queries = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>();
+		List<String> ids = new ArrayList<String>();
+		for (Entry<String, List<String>> e : idsByKey.entrySet()) {
+			if (!keys.isEmpty() && (keys.size() + 1 > MAX_CLAUSES || ids.size() + e.getValue().size() > MAX_CLAUSES)) {
+				queries.add(getReplaceQuery(keyField, idField, keys, ids));
+				keys.clear();
+				ids.clear();
+			}
+			keys.add(e.getKey());
+			ids.addAll(e.getValue());
+		}
+		if (!keys.isEmpty()) {
+			queries.add(getReplaceQuery(keyField, idField, keys, ids));
+		}
+		return queries;
+	}
+
+	private static String getReplaceQuery(String keyField, String idField, List<String> keys, List<String> ids) {
+		StringBuilder q = new StringBuilder("+").append(keyField).append(":(");
+		appendTerms(q, keys);
+		q.append(")");
+		if (!ids.isEmpty()) {
+			q.append(" -").append(idField).append(":(");
+			appendTerms(q, ids);
+			q.append(")");
+		}
+		return q.toString();
+	}
+
+	/**
+	 * @return filter on the values of the field sorting after the given one,
+	 *         for paging by sort key
+	 */
+	public static String getAfterQuery(String field, String value) {
+		return new StringBuilder(field).append(":{").append(ClientUtils.escapeQueryChars(value)).append(" TO *]")
+				.toString();
+	}
+
+	/**
+	 * Reads the key field and keys back from a query built by
+	 * {@link #getReplaceQueries(String, String, Map)} or
+	 * {@link #getTermsQuery(String, Collection)}, or from a plain
+	 * field:value query.
+	 *
+	 * @return null for any other query
+	 */
+	public static KeyQuery parseKeyQuery(String q, String idField) {
+		int colon = q.indexOf(':');
+		if (colon < 0) {
+			return null;
+		}
+		int start = q.startsWith("+") ? 1 : 0;
+		String field = q.substring(start, colon);
+		if (!field.matches("[A-Za-z0-9_.]+")) {
+			return null;
+		}
+
+		List<String> keys = new ArrayList<String>();
+		int end;
+		if (q.startsWith("(", colon + 1)) {
+			end = readTerms(q, colon + 2, keys);
+			if (end < 0) {
+				return null;
+			}
+		} else {
+			StringBuilder term = new StringBuilder();
+			end = colon + 1;
+			for (; end < q.length(); end++) {
+				char c = q.charAt(end);
+				if (c == '\\' && end + 1 < q.length()) {
+					term.append(q.charAt(++end));
+				} else if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '*') {
+					return null;
+				} else {
+					term.append(c);
+				}
+			}
+			if (term.length() == 0) {
+				return null;
+			}
+			keys.add(term.toString());
+		}
+
+		String rest = q.substring(end);
+		String exclude = " -" + idField + ":(";
+		if (!rest.isEmpty() && !(start == 1 && rest.startsWith(exclude)
+				&& readTerms(q, end + exclude.length(), new ArrayList<String>()) == q.length())) {
+			return null;
+		}
+		return new KeyQuery(field, keys);
+	}
+
+	/**
+	 * @return the position after the closing parenthesis, -1 if there is none
+	 */
+	private static int readTerms(String q, int pos, List<String> terms) {
+		StringBuilder term = new StringBuilder();
+		for (int i = pos; i < q.length(); i++) {
+			char c = q.charAt(i);
+			if (c == '\\' && i + 1 < q.length()) {
+				term.append(q.charAt(++i));
+			} else if (c == ')') {
+				terms.add(term.toString());
+				return i + 1;
+			} else if (c == ' ' && q.startsWith(" OR ", i)) {
+				terms.add(term.toString());
+				term.setLength(0);
+				i += 3;
+			} else {
+				term.append(c);
+			}
+		}
+		return -1;
+	}
+
+	private static void appendTerms(StringBuilder q, Collection<String> values) {
+		for (Iterator<String> i = values.iterator(); i.hasNext();) {
+			q.append(ClientUtils.escapeQueryChars(i.next()));
+			if (i.hasNext()) {
+				q.append(" OR ");
+			}
+		}
+	}
+
+	public static class KeyQuery {
+		private final String field;
+		private final List<String> keys;
+
+		KeyQuery(String field, List<String> keys) {
+			this.field = field;
+			this.keys = keys;
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public List<String> getKeys() {
+			return keys;
+		}
+	}
+
+}
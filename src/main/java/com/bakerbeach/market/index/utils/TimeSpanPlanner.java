@@ -0,0 +1,99 @@
+package com.bakerbeach.market.index.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Turns the boundary dates of a product into the minimal list of time spans
+ * to index: boundaries are deduplicated, adjacent spans with the same
+ * effective prices are merged and spans that ended before now are dropped,
+ * except the last one so a product never loses all of its documents.
+ */
+public class TimeSpanPlanner {
+	private boolean dropExpired = true;
+
+	public List<TimeSpan> plan(Collection<Date> boundaries, PriceTimeline prices, Date now) {
+		TreeSet<Date> dates = new TreeSet<Date>();
+		for (Date date : boundaries) {
+			if (date != null) {
+				dates.add(date);
+			}
+		}
+
+		List<TimeSpan> spans = new ArrayList<TimeSpan>();
+		if (dates.size() < 2) {
+			return spans;
+		}
+
+		TimeSpan current = null;
+		List<BigDecimal> currentPrices = null;
+		Iterator<Date> iterator = dates.iterator();
+		for (Date to = iterator.next(); iterator.hasNext();) {
+			Date from = to;
+			to = iterator.next();
+
+			List<BigDecimal> effective = getEffectivePrices(prices, from);
+			if (current != null && effective.equals(currentPrices)) {
+				current.to = to;
+			} else {
+				current = new TimeSpan(from, to);
+				currentPrices = effective;
+				spans.add(current);
+			}
+		}
+
+		if (dropExpired && now != null) {
+			for (Iterator<TimeSpan> i = spans.iterator(); i.hasNext() && spans.size() > 1;) {
+				if (!i.next().getTo().after(now)) {
+					i.remove();
+				}
+			}
+		}
+		return spans;
+	}
+
+	private List<BigDecimal> getEffectivePrices(PriceTimeline prices, Date date) {
+		List<BigDecimal> values = new ArrayList<BigDecimal>();
+		for (PriceTimeline.Series series : prices.getSeries()) {
+			values.add(series.getValue(date));
+		}
+		return values;
+	}
+
+	public boolean isDropExpired() {
+		return dropExpired;
+	}
+
+	public void setDropExpired(boolean dropExpired) {
+		this.dropExpired = dropExpired;
+	}
+
+	public static class TimeSpan {
+		private final Date from;
+		private Date to;
+
+		TimeSpan(Date from, Date to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public Date getFrom() {
+			return from;
+		}
+
+		public Date getTo() {
+			return to;
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder("[").append(from).append(", ").append(to).append(")").toString();
+		}
+	}
+
+}
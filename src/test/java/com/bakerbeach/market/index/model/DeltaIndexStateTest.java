@@ -0,0 +1,78 @@
+package com.bakerbeach.market.index.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+public class DeltaIndexStateTest {
+
+	@Test
+	public void advanceWatermarkSetsFirstWatermark() {
+		DeltaIndexState state = new DeltaIndexState("shop");
+		state.advanceWatermark(new Date(1000));
+
+		assertEquals(new Date(1000), state.getWatermark());
+	}
+
+	@Test
+	public void advanceWatermarkMovesForward() {
+		DeltaIndexState state = new DeltaIndexState("shop");
+		state.setWatermark(new Date(1000));
+		state.advanceWatermark(new Date(2000));
+
+		assertEquals(new Date(2000), state.getWatermark());
+	}
+
+	@Test
+	public void advanceWatermarkNeverMovesBackwards() {
+		DeltaIndexState state = new DeltaIndexState("shop");
+		state.setWatermark(new Date(2000));
+		state.advanceWatermark(new Date(1000));
+
+		assertEquals(new Date(2000), state.getWatermark());
+	}
+
+	@Test
+	public void advanceWatermarkIgnoresNull() {
+		DeltaIndexState state = new DeltaIndexState("shop");
+		state.advanceWatermark(null);
+		assertNull(state.getWatermark());
+
+		state.setWatermark(new Date(1000));
+		state.advanceWatermark(null);
+		assertEquals(new Date(1000), state.getWatermark());
+	}
+
+	@Test
+	public void setWatermarkReplacesIt() {
+		// a rebuild starts the state over
+		DeltaIndexState state = new DeltaIndexState("shop");
+		state.setWatermark(new Date(2000));
+		state.setWatermark(new Date(1000));
+
+		assertEquals(new Date(1000), state.getWatermark());
+	}
+
+	@Test
+	public void fingerprints() {
+		DeltaIndexState state = new DeltaIndexState("shop");
+		assertFalse(state.isUnchanged("a", 1L));
+
+		state.setFingerprint("a", 1L);
+		assertTrue(state.isUnchanged("a", 1L));
+		assertFalse(state.isUnchanged("a", 2L));
+
+		state.setFingerprint("a", null);
+		assertFalse(state.isUnchanged("a", 1L));
+
+		state.setFingerprint("b", 3L);
+		state.clearFingerprints();
+		assertFalse(state.isUnchanged("b", 3L));
+	}
+
+}
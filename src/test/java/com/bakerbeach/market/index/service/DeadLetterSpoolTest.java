@@ -0,0 +1,187 @@
+package com.bakerbeach.market.index.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bakerbeach.market.index.utils.SolrQueryUtils;
+
+public class DeadLetterSpoolTest {
+	private static final String URL = "http://localhost:8983/solr/shop";
+
+	private File directory;
+	private DeadLetterSpool spool;
+	private RecordingWriter writer;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("dead-letter").toFile();
+		spool = new DeadLetterSpool();
+		spool.setDirectory(directory);
+		writer = new RecordingWriter();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : directory.listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(directory.toPath());
+	}
+
+	@Test
+	public void encodeKeepsTypes() {
+		Map<String, Object> atomic = new LinkedHashMap<String, Object>();
+		atomic.put("set", 3);
+
+		assertEquals(new BigDecimal("10.50"),
+				DeadLetterSpool.decode(DeadLetterSpool.encode(new BigDecimal("10.50"))));
+		assertEquals(new Date(1000), DeadLetterSpool.decode(DeadLetterSpool.encode(new Date(1000))));
+		assertEquals(3, DeadLetterSpool.decode(DeadLetterSpool.encode(3)));
+		assertEquals(3L, DeadLetterSpool.decode(DeadLetterSpool.encode(3L)));
+		assertEquals(Boolean.TRUE, DeadLetterSpool.decode(DeadLetterSpool.encode(true)));
+		assertEquals("n:1", DeadLetterSpool.decode(DeadLetterSpool.encode("n:1")));
+		assertEquals(Arrays.asList(new BigDecimal("1.0"), "a"),
+				DeadLetterSpool.decode(DeadLetterSpool.encode(Arrays.asList(new BigDecimal("1.0"), "a"))));
+		assertEquals(atomic, DeadLetterSpool.decode(DeadLetterSpool.encode(atomic)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeRejectsUntypedValues() {
+		DeadLetterSpool.decode("10.50");
+	}
+
+	@Test
+	public void replaySendsSpooledRequestAgain() throws IOException {
+		spool.append(URL, replace(doc("a", "a-1", "10.50")), new IOException("down"));
+		assertFalse(spool.isEmpty());
+
+		assertEquals(1, spool.replay(writer));
+
+		assertEquals(1, writer.requests.size());
+		UpdateRequest request = writer.requests.get(0);
+		assertEquals(1, request.getDocuments().size());
+		assertEquals(new BigDecimal("10.50"), request.getDocuments().get(0).getFieldValue("eur_default_price"));
+		assertEquals(replace(doc("a", "a-1", "10.50")).getDeleteQuery(), request.getDeleteQuery());
+		assertTrue(spool.isEmpty());
+	}
+
+	@Test
+	public void replaySkipsProductsWrittenSince() throws IOException {
+		spool.append(URL, replace(doc("a", "a-1", "10.50"), doc("b", "b-1", "8.00")), new IOException("down"));
+		spool.written(URL, replace(doc("a", "a-2", "11.00")));
+
+		assertEquals(1, spool.replay(writer));
+
+		UpdateRequest request = writer.requests.get(0);
+		assertEquals(1, request.getDocuments().size());
+		assertEquals("b-1", request.getDocuments().get(0).getFieldValue("id"));
+		assertEquals(replace(doc("b", "b-1", "8.00")).getDeleteQuery(), request.getDeleteQuery());
+	}
+
+	@Test
+	public void replayDropsFullySupersededRequests() throws IOException {
+		spool.append(URL, replace(doc("a", "a-1", "10.50")), new IOException("down"));
+		spool.written(URL, replace(doc("a", "a-2", "11.00")));
+
+		assertEquals(0, spool.replay(writer));
+		assertTrue(writer.requests.isEmpty());
+		assertTrue(spool.isEmpty());
+	}
+
+	@Test
+	public void writesOfOtherCollectionsDoNotSupersede() throws IOException {
+		spool.append(URL, replace(doc("a", "a-1", "10.50")), new IOException("down"));
+		spool.written(URL + "_blue", replace(doc("a", "a-2", "11.00")));
+
+		assertEquals(1, spool.replay(writer));
+	}
+
+	@Test
+	public void replayKeepsUnreadableLines() throws IOException {
+		spool.append(URL, replace(doc("a", "a-1", "10.50")), new IOException("down"));
+		Files.write(new File(directory, "dead-letter.jsonl").toPath(), "{not json\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		assertEquals(1, spool.replay(writer));
+
+		List<String> unreadable = Files.readAllLines(spool.getUnreadableFile().toPath(), StandardCharsets.UTF_8);
+		assertEquals(Collections.singletonList("{not json"), unreadable);
+	}
+
+	@Test
+	public void writtenWithoutSpoolWritesNothing() throws IOException {
+		spool.written(URL, replace(doc("a", "a-1", "10.50")));
+
+		assertTrue(spool.isEmpty());
+		assertEquals(0, spool.replay(writer));
+	}
+
+	@Test
+	public void toRequestWithoutSupersededKeysKeepsEverything() {
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("format", 2);
+		entry.put("deleteQuery", Collections.singletonList("code:(a)"));
+		entry.put("deleteById", Collections.singletonList("x-1"));
+
+		UpdateRequest request = DeadLetterSpool.toRequest(entry, key -> false);
+
+		assertEquals(Collections.singletonList("x-1"), request.getDeleteById());
+		assertEquals(1, request.getDeleteQuery().size());
+		assertNull(request.getDocuments());
+	}
+
+	private static SolrInputDocument doc(String code, String id, String price) {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("code", code);
+		doc.addField("id", id);
+		doc.addField("eur_default_price", new BigDecimal(price));
+		return doc;
+	}
+
+	private static UpdateRequest replace(SolrInputDocument... docs) {
+		UpdateRequest request = new UpdateRequest();
+		Map<String, List<String>> idsByCode = new LinkedHashMap<String, List<String>>();
+		for (SolrInputDocument doc : docs) {
+			request.add(doc);
+			idsByCode.computeIfAbsent((String) doc.getFieldValue("code"), k -> new ArrayList<String>())
+					.add((String) doc.getFieldValue("id"));
+		}
+		for (String q : SolrQueryUtils.getReplaceQueries("code", "id", idsByCode)) {
+			request.deleteByQuery(q);
+		}
+		return request;
+	}
+
+	private static class RecordingWriter extends SolrWriter {
+		private final List<UpdateRequest> requests = new ArrayList<UpdateRequest>();
+
+		@Override
+		public void process(String url, SolrServer solr, UpdateRequest request) {
+			requests.add(request);
+		}
+	}
+
+}
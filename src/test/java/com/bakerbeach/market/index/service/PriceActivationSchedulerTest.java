@@ -0,0 +1,110 @@
+package com.bakerbeach.market.index.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+public class PriceActivationSchedulerTest {
+
+	@Test
+	public void splitTakesDocumentInEffect() {
+		SolrInputDocument past = doc(1000L, 2000L);
+		SolrInputDocument current = doc(2000L, 3000L);
+		SolrInputDocument next = doc(3000L, 4000L);
+		Map<String, List<SolrInputDocument>> upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+
+		Map<String, List<SolrInputDocument>> active = PriceActivationScheduler.split(
+				batch("a", past, current, next), upcoming, new Date(2500));
+
+		assertEquals(Collections.singletonList(current), active.get("a"));
+		assertEquals(Collections.singletonList(next), upcoming.get("a"));
+	}
+
+	@Test
+	public void splitStartsDocumentAtActiveFrom() {
+		SolrInputDocument current = doc(2000L, 3000L);
+		SolrInputDocument next = doc(3000L, 4000L);
+		Map<String, List<SolrInputDocument>> upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+
+		Map<String, List<SolrInputDocument>> active = PriceActivationScheduler.split(batch("a", current, next),
+				upcoming, new Date(3000));
+
+		assertEquals(Collections.singletonList(next), active.get("a"));
+		assertTrue(upcoming.get("a").isEmpty());
+	}
+
+	@Test
+	public void splitWithoutDocumentInEffect() {
+		SolrInputDocument expired = doc(1000L, 2000L);
+		SolrInputDocument next = doc(3000L, 4000L);
+		Map<String, List<SolrInputDocument>> upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+
+		Map<String, List<SolrInputDocument>> active = PriceActivationScheduler.split(batch("a", expired, next),
+				upcoming, new Date(2500));
+
+		assertTrue(active.get("a").isEmpty());
+		assertEquals(Collections.singletonList(next), upcoming.get("a"));
+	}
+
+	@Test
+	public void splitWithOpenBounds() {
+		SolrInputDocument always = doc(null, null);
+		SolrInputDocument started = doc(1000L, null);
+		Map<String, List<SolrInputDocument>> upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+
+		Map<String, List<SolrInputDocument>> active = PriceActivationScheduler.split(batch("a", started, always),
+				upcoming, new Date(2500));
+
+		// a document without active_from starts before any other
+		assertSame(started, active.get("a").get(0));
+		assertTrue(upcoming.get("a").isEmpty());
+
+		active = PriceActivationScheduler.split(batch("b", always), upcoming, new Date(2500));
+		assertSame(always, active.get("b").get(0));
+	}
+
+	@Test
+	public void splitKeepsProductsApart() {
+		SolrInputDocument a = doc(1000L, 3000L);
+		SolrInputDocument b = doc(3000L, 4000L);
+		Map<String, List<SolrInputDocument>> batch = new LinkedHashMap<String, List<SolrInputDocument>>();
+		batch.put("a", Arrays.asList(a));
+		batch.put("b", Arrays.asList(b));
+		Map<String, List<SolrInputDocument>> upcoming = new LinkedHashMap<String, List<SolrInputDocument>>();
+
+		Map<String, List<SolrInputDocument>> active = PriceActivationScheduler.split(batch, upcoming, new Date(2500));
+
+		assertEquals(Collections.singletonList(a), active.get("a"));
+		assertTrue(active.get("b").isEmpty());
+		assertTrue(upcoming.get("a").isEmpty());
+		assertEquals(Collections.singletonList(b), upcoming.get("b"));
+	}
+
+	private static Map<String, List<SolrInputDocument>> batch(String key, SolrInputDocument... docs) {
+		Map<String, List<SolrInputDocument>> batch = new LinkedHashMap<String, List<SolrInputDocument>>();
+		batch.put(key, Arrays.asList(docs));
+		return batch;
+	}
+
+	private static SolrInputDocument doc(Long from, Long to) {
+		SolrInputDocument doc = new SolrInputDocument();
+		if (from != null) {
+			doc.addField("active_from", new Date(from));
+		}
+		if (to != null) {
+			doc.addField("active_to", new Date(to));
+		}
+		return doc;
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.bakerbeach.market.index.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bakerbeach.market.index.service.RunJournal.Run;
+
+public class RunJournalTest {
+	private File directory;
+	private RunJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("run-journal").toFile();
+		journal = new RunJournal();
+		journal.setDirectory(directory);
+		journal.setCheckpointInterval(2);
+		journal.setFsync(false);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : directory.listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(directory.toPath());
+	}
+
+	@Test
+	public void newRunIsNotResumed() throws IOException {
+		Run run = journal.open("shop", 1L);
+
+		assertFalse(run.isResumed());
+		assertEquals(0, run.getAcknowledged());
+		run.close();
+	}
+
+	@Test
+	public void retryResumesClosedRun() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a", "b"));
+		run.close();
+
+		Run retry = journal.open("shop", 1L);
+		assertTrue(retry.isResumed());
+		assertEquals(2, retry.getAcknowledged());
+		assertTrue(retry.isAcknowledged("a"));
+		assertTrue(retry.isAcknowledged("b"));
+		assertFalse(retry.isAcknowledged("c"));
+		retry.close();
+	}
+
+	@Test
+	public void resumeDropsRecordsAfterLastCheckpoint() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a"));
+		run.close();
+		// a run killed after writing c and part of d
+		File file = journal.getFile("shop", 1L);
+		long length = file.length();
+		Files.write(file.toPath(), "c\nd".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		Run retry = journal.open("shop", 1L);
+		assertEquals(1, retry.getAcknowledged());
+		assertFalse(retry.isAcknowledged("c"));
+		assertFalse(retry.isAcknowledged("d"));
+		assertEquals(length, file.length());
+
+		retry.acknowledge(Arrays.asList("e"));
+		retry.close();
+
+		Run next = journal.open("shop", 1L);
+		assertEquals(2, next.getAcknowledged());
+		assertTrue(next.isAcknowledged("e"));
+		next.close();
+	}
+
+	@Test
+	public void checkpointIntervalCountsBatches() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a"));
+		run.acknowledge(Arrays.asList("b"));
+		run.acknowledge(Arrays.asList("c"));
+
+		Set<String> acknowledged = new HashSet<String>();
+		try (FileChannel channel = FileChannel.open(journal.getFile("shop", 1L).toPath(), StandardOpenOption.READ)) {
+			assertTrue(RunJournal.read(channel, 1L, acknowledged) > 0);
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), acknowledged);
+		run.close();
+	}
+
+	@Test
+	public void readIgnoresJournalOfOtherRun() throws IOException {
+		journal.open("shop", 1L).close();
+
+		Set<String> acknowledged = new HashSet<String>();
+		try (FileChannel channel = FileChannel.open(journal.getFile("shop", 1L).toPath(), StandardOpenOption.READ)) {
+			assertEquals(0, RunJournal.read(channel, 2L, acknowledged));
+		}
+		assertTrue(acknowledged.isEmpty());
+	}
+
+	@Test
+	public void otherRunKeyStartsNewJournal() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a"));
+		run.close();
+
+		Run other = journal.open("shop", 2L);
+		assertFalse(other.isResumed());
+		assertFalse(other.isAcknowledged("a"));
+		other.close();
+
+		assertTrue(journal.getFile("shop", 1L).exists());
+		assertTrue(journal.getFile("shop", 2L).exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void sameRunKeyCannotBeOpenedTwice() throws IOException {
+		Run run = journal.open("shop", 1L);
+		try {
+			journal.open("shop", 1L);
+		} finally {
+			run.close();
+		}
+	}
+
+	@Test
+	public void completeRemovesJournal() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a"));
+		run.complete();
+
+		assertFalse(journal.getFile("shop", 1L).exists());
+		Run next = journal.open("shop", 1L);
+		assertFalse(next.isResumed());
+		next.close();
+	}
+
+	@Test
+	public void expiredJournalsAreRemoved() throws IOException {
+		Run run = journal.open("shop", 1L);
+		run.acknowledge(Arrays.asList("a"));
+		run.close();
+		assertTrue(journal.getFile("shop", 1L).setLastModified(System.currentTimeMillis() - 2000));
+
+		journal.setMaxAge(1000);
+		journal.open("shop", 2L).close();
+
+		assertFalse(journal.getFile("shop", 1L).exists());
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.bakerbeach.market.index.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.bakerbeach.market.xcatalog.model.Price;
+
+public class PriceTimelineTest {
+	private static final Currency EUR = Currency.getInstance("EUR");
+	private static final Currency USD = Currency.getInstance("USD");
+
+	@Test
+	public void getPriceTakesLatestStartNotAfterDate() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", 2000, "12.00"),
+				price(EUR, "default", 1000, "10.00"), price(EUR, "default", 3000, "14.00")));
+
+		assertNull(timeline.getPrice(EUR, "default", new Date(999)));
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "default", new Date(1000)));
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "default", new Date(1999)));
+		assertEquals(new BigDecimal("12.00"), timeline.getPrice(EUR, "default", new Date(2000)));
+		assertEquals(new BigDecimal("14.00"), timeline.getPrice(EUR, "default", new Date(5000)));
+	}
+
+	@Test
+	public void getPriceTakesFirstListedOfEqualStarts() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", 1000, "10.00"),
+				price(EUR, "default", 1000, "11.00")));
+
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "default", new Date(1000)));
+	}
+
+	@Test
+	public void getPriceFallsBackToDefaultGroup() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", 1000, "10.00"),
+				price(EUR, "b2b", 2000, "8.00")));
+
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "b2b", new Date(1500)));
+		assertEquals(new BigDecimal("8.00"), timeline.getPrice(EUR, "b2b", new Date(2500)));
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "retail", new Date(2500)));
+		assertNull(timeline.getPrice(USD, "default", new Date(2500)));
+	}
+
+	@Test
+	public void getStdPriceTakesLastListed() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", 2000, "12.00"),
+				price(EUR, "default", null, "9.00"), price(EUR, "b2b", 1000, "8.00")));
+
+		assertEquals(new BigDecimal("9.00"), timeline.getStdPrice(EUR, "default"));
+		assertEquals(new BigDecimal("8.00"), timeline.getStdPrice(EUR, "b2b"));
+		assertEquals(new BigDecimal("9.00"), timeline.getStdPrice(EUR, "retail"));
+		assertNull(timeline.getStdPrice(USD, "default"));
+	}
+
+	@Test
+	public void pricesWithoutStartAreNotInEffect() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", null, "9.00")));
+
+		assertNull(timeline.getPrice(EUR, "default", new Date(1000)));
+		assertEquals(0, timeline.getSeries(EUR, "default", null).getStarts().length);
+	}
+
+	@Test
+	public void seriesPerCurrencyGroupAndTag() {
+		PriceTimeline timeline = PriceTimeline.ofPrices(Arrays.asList(price(EUR, "default", 1000, "10.00"),
+				price(EUR, "default", "sale", 1000, "7.00"), price(USD, "default", 1000, "11.00")));
+
+		assertEquals(3, timeline.getSeries().size());
+		assertEquals(new BigDecimal("7.00"), timeline.getPrice(EUR, "default", "sale", new Date(1000)));
+		assertEquals(new BigDecimal("10.00"), timeline.getPrice(EUR, "default", new Date(1000)));
+		assertEquals(new BigDecimal("11.00"), timeline.getPrice(USD, "default", new Date(1000)));
+		assertEquals(FieldNames.getPriceField(EUR, "default", "sale"),
+				timeline.getSeries(EUR, "default", "sale").getFieldName());
+	}
+
+	static Price price(Currency currency, String group, Integer start, String value) {
+		return price(currency, group, null, start, value);
+	}
+
+	static Price price(Currency currency, String group, String tag, Integer start, String value) {
+		return new Price() {
+			@Override
+			public Currency getCurrency() {
+				return currency;
+			}
+
+			@Override
+			public String getGroup() {
+				return group;
+			}
+
+			@Override
+			public String getTag() {
+				return tag;
+			}
+
+			@Override
+			public Date getStart() {
+				return (start != null) ? new Date(start) : null;
+			}
+
+			@Override
+			public BigDecimal getValue() {
+				return new BigDecimal(value);
+			}
+		};
+	}
+
+}
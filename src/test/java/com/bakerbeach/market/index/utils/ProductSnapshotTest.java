@@ -0,0 +1,184 @@
+package com.bakerbeach.market.index.utils;
+
+import static com.bakerbeach.market.index.utils.PriceTimelineTest.price;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bakerbeach.market.index.utils.ProductSnapshot.Row;
+import com.bakerbeach.market.xcatalog.model.Price;
+import com.bakerbeach.market.xcatalog.model.Product;
+
+public class ProductSnapshotTest {
+	private static final Currency EUR = Currency.getInstance("EUR");
+
+	@Test
+	public void keepsProductFields() {
+		Map<String, List<String>> logos = new LinkedHashMap<String, List<String>>();
+		logos.put("bio", Collections.singletonList("eu"));
+		logos.put("seal", Arrays.asList("a", "b"));
+		ProductSnapshot snapshot = ProductSnapshot.of(Arrays.asList(
+				product("a", Boolean.TRUE, new BigDecimal("0.75"), Arrays.asList("shoes", "sale"), logos),
+				product("b", null, null, null, null)));
+
+		assertEquals(2, snapshot.size());
+		assertEquals("a", snapshot.getCode(0));
+		assertEquals("brand-a", snapshot.getBrand(0));
+		assertEquals("name-a", snapshot.getName(0));
+		assertEquals(Boolean.TRUE, snapshot.isIndexed(0));
+		assertEquals(new BigDecimal("0.75"), snapshot.getBasePriceDivisor(0, 1));
+		assertEquals("l", snapshot.getBasePriceUnit(0, 1));
+		assertNull(snapshot.getBasePriceDivisor(0, 2));
+		assertEquals(2, snapshot.getCategoryCount(0));
+		assertEquals("sale", snapshot.getCategory(0, 1));
+		assertEquals(2, snapshot.getLogoCount(0));
+		assertEquals("bio", snapshot.getLogoKey(0, 0));
+		assertEquals(Collections.singletonList("eu"), snapshot.getLogoValue(0, 0));
+		assertEquals(Arrays.asList("a", "b"), snapshot.getLogoValue(0, 1));
+
+		assertEquals("b", snapshot.getCode(1));
+		assertNull(snapshot.isIndexed(1));
+		assertNull(snapshot.getType(1));
+		assertNull(snapshot.getBasePriceDivisor(1, 1));
+		assertEquals(0, snapshot.getCategoryCount(1));
+		assertEquals(0, snapshot.getLogoCount(1));
+		assertEquals(0, snapshot.getTagCount(1));
+		assertEquals(0, snapshot.getPriceCount(1));
+	}
+
+	@Test
+	public void keepsPrices() {
+		BigDecimal large = new BigDecimal("123456789012345678901234.50");
+		Product product = product("a", Arrays.asList(price(EUR, "default", 1000, "10.50"),
+				price(EUR, "b2b", "sale", null, "8.00"), price(EUR, "default", 2000, large.toPlainString())));
+		ProductSnapshot snapshot = ProductSnapshot.of(Collections.singletonList(product));
+
+		assertEquals(3, snapshot.getPriceCount(0));
+		assertEquals(EUR, snapshot.getPriceCurrency(0, 0));
+		assertEquals("default", snapshot.getPriceGroup(0, 0));
+		assertNull(snapshot.getPriceTag(0, 0));
+		assertTrue(snapshot.hasPriceStart(0, 0));
+		assertEquals(1000, snapshot.getPriceStart(0, 0));
+		assertEquals(new BigDecimal("10.50"), snapshot.getPriceValue(0, 0));
+		assertEquals("sale", snapshot.getPriceTag(0, 1));
+		assertFalse(snapshot.hasPriceStart(0, 1));
+		assertEquals(large, snapshot.getPriceValue(0, 2));
+	}
+
+	@Test
+	public void timelineOfSnapshotMatchesTimelineOfPrices() {
+		List<Price> prices = Arrays.asList(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"),
+				price(EUR, "default", null, "9.00"), price(EUR, "b2b", 1500, "8.00"));
+		PriceTimeline expected = PriceTimeline.ofPrices(prices);
+		PriceTimeline timeline = PriceTimeline.ofSnapshot(ProductSnapshot.of(Collections.singletonList(
+				product("a", prices))), 0);
+
+		for (long time : new long[] { 500, 1000, 1500, 2500 }) {
+			assertEquals(expected.getPrice(EUR, "default", new Date(time)),
+					timeline.getPrice(EUR, "default", new Date(time)));
+			assertEquals(expected.getPrice(EUR, "b2b", new Date(time)), timeline.getPrice(EUR, "b2b", new Date(time)));
+		}
+		assertEquals(expected.getStdPrice(EUR, "default"), timeline.getStdPrice(EUR, "default"));
+	}
+
+	@Test
+	public void rowsAreTakenInBatches() {
+		List<Product> products = new ArrayList<Product>();
+		for (int i = 0; i < 5; i++) {
+			products.add(product("p" + i, null, null, null, null));
+		}
+
+		List<Row> rows = new ArrayList<Row>();
+		for (Row row : ProductSnapshot.rows(products, 2)) {
+			rows.add(row);
+		}
+
+		assertEquals(5, rows.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("p" + i, rows.get(i).getCode());
+			assertEquals(i % 2, rows.get(i).getIndex());
+		}
+		assertSame(rows.get(0).getSnapshot(), rows.get(1).getSnapshot());
+		assertEquals(2, rows.get(0).getSnapshot().size());
+		assertEquals(1, rows.get(4).getSnapshot().size());
+	}
+
+	@Test
+	public void noRowsWithoutProducts() {
+		assertFalse(ProductSnapshot.rows(Collections.<Product> emptyList(), 2).iterator().hasNext());
+	}
+
+	private static Product product(String code, List<Price> prices) {
+		return product(code, null, null, null, null, prices);
+	}
+
+	private static Product product(String code, Boolean indexed, BigDecimal divisor, List<String> categories,
+			Map<String, List<String>> logos) {
+		return product(code, indexed, divisor, categories, logos, null);
+	}
+
+	private static Product product(String code, Boolean indexed, BigDecimal divisor, List<String> categories,
+			Map<String, List<String>> logos, List<Price> prices) {
+		return new Product() {
+			@Override
+			public String getCode() {
+				return code;
+			}
+
+			@Override
+			public String getBrand() {
+				return "brand-" + code;
+			}
+
+			@Override
+			public String getName() {
+				return "name-" + code;
+			}
+
+			@Override
+			public Boolean isIndexed() {
+				return indexed;
+			}
+
+			@Override
+			public BigDecimal getBasePrice1Divisor() {
+				return divisor;
+			}
+
+			@Override
+			public String getBasePrice1Unit() {
+				return (divisor != null) ? "l" : null;
+			}
+
+			@Override
+			public List<String> getCategories() {
+				return categories;
+			}
+
+			@Override
+			public Map<String, List<String>> getLogos() {
+				return logos;
+			}
+
+			@Override
+			public List<Price> getPrices() {
+				return prices;
+			}
+		};
+	}
+
+}
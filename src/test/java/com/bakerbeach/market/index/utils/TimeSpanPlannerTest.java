@@ -0,0 +1,115 @@
+package com.bakerbeach.market.index.utils;
+
+import static com.bakerbeach.market.index.utils.PriceTimelineTest.price;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.bakerbeach.market.index.utils.TimeSpanPlanner.TimeSpan;
+import com.bakerbeach.market.xcatalog.model.Price;
+
+public class TimeSpanPlannerTest {
+	private static final Currency EUR = Currency.getInstance("EUR");
+
+	private final TimeSpanPlanner planner = new TimeSpanPlanner();
+
+	@Test
+	public void oneSpanPerPriceChange() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"));
+
+		List<TimeSpan> spans = planner.plan(dates(1000, 2000, 9000), prices, new Date(0));
+
+		assertEquals(2, spans.size());
+		assertSpan(1000, 2000, spans.get(0));
+		assertSpan(2000, 9000, spans.get(1));
+	}
+
+	@Test
+	public void duplicateBoundariesAreIgnored() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"));
+
+		List<TimeSpan> spans = planner.plan(Arrays.asList(new Date(2000), new Date(1000), new Date(2000), null,
+				new Date(9000)), prices, new Date(0));
+
+		assertEquals(2, spans.size());
+		assertSpan(1000, 2000, spans.get(0));
+		assertSpan(2000, 9000, spans.get(1));
+	}
+
+	@Test
+	public void spansWithEqualPricesAreMerged() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "10.00"),
+				price(EUR, "default", 3000, "12.00"));
+
+		List<TimeSpan> spans = planner.plan(dates(1000, 2000, 3000, 9000), prices, new Date(0));
+
+		assertEquals(2, spans.size());
+		assertSpan(1000, 3000, spans.get(0));
+		assertSpan(3000, 9000, spans.get(1));
+	}
+
+	@Test
+	public void expiredSpansAreDropped() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"),
+				price(EUR, "default", 3000, "14.00"));
+
+		List<TimeSpan> spans = planner.plan(dates(1000, 2000, 3000, 9000), prices, new Date(2500));
+
+		assertEquals(2, spans.size());
+		assertSpan(2000, 3000, spans.get(0));
+		assertSpan(3000, 9000, spans.get(1));
+	}
+
+	@Test
+	public void lastSpanIsKeptWhenAllExpired() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"));
+
+		List<TimeSpan> spans = planner.plan(dates(1000, 2000, 3000), prices, new Date(5000));
+
+		assertEquals(1, spans.size());
+		assertSpan(2000, 3000, spans.get(0));
+	}
+
+	@Test
+	public void expiredSpansAreKeptUnlessDropped() {
+		planner.setDropExpired(false);
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"), price(EUR, "default", 2000, "12.00"));
+
+		List<TimeSpan> spans = planner.plan(dates(1000, 2000, 9000), prices, new Date(5000));
+
+		assertEquals(2, spans.size());
+	}
+
+	@Test
+	public void noSpanWithoutTwoBoundaries() {
+		PriceTimeline prices = timeline(price(EUR, "default", 1000, "10.00"));
+
+		assertTrue(planner.plan(dates(1000), prices, new Date(0)).isEmpty());
+		assertTrue(planner.plan(Collections.<Date> emptyList(), prices, new Date(0)).isEmpty());
+	}
+
+	private static PriceTimeline timeline(Price... prices) {
+		return PriceTimeline.ofPrices(Arrays.asList(prices));
+	}
+
+	private static List<Date> dates(long... times) {
+		Date[] dates = new Date[times.length];
+		for (int i = 0; i < times.length; i++) {
+			dates[i] = new Date(times[i]);
+		}
+		return Arrays.asList(dates);
+	}
+
+	private static void assertSpan(long from, long to, TimeSpan span) {
+		assertEquals(new Date(from), span.getFrom());
+		assertEquals(new Date(to), span.getTo());
+	}
+
+}